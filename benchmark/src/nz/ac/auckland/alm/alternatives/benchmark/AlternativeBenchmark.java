@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.ac.auckland.alm.alternatives.benchmark;
+
+import nz.ac.auckland.alm.IArea;
+import nz.ac.auckland.alm.algebra.Fragment;
+import nz.ac.auckland.alm.algebra.trafo.Classification;
+import nz.ac.auckland.alm.algebra.trafo.Classifier;
+import nz.ac.auckland.alm.algebra.trafo.TrafoHistory;
+import nz.ac.auckland.alm.alternatives.*;
+import nz.ac.auckland.alm.alternatives.gui.AlternativeController;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Benchmarks of the hot paths of the alternative generation on synthetic layouts.
+ *
+ * Run main() to get the throughput together with the allocation rates of the GC profiler. ALMLayoutWriter is only
+ * benchmarked for the constraint computation, writing the file needs a PSI environment.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AlternativeBenchmark {
+  static final private int PERMUTATIONS = 200;
+
+  @Param({"2", "3", "4"})
+  public int depth;
+
+  @Param({"3", "5"})
+  public int width;
+
+  private Fragment fragment;
+  private List<Fragment> permutations;
+  private List<IArea> items;
+  private Classifier classifier;
+  private List<AlternativeInfo> alternatives;
+  // copy of the fragment with LayoutElement cookies for ALMLayoutWriter
+  private Fragment almFragment;
+
+  @Setup
+  public void setup() {
+    fragment = SyntheticLayouts.create(depth, width, 42);
+    Random random = new Random(42);
+    permutations = new ArrayList<Fragment>();
+    for (int i = 0; i < PERMUTATIONS; i++)
+      permutations.add(SyntheticLayouts.permute(fragment, random));
+    items = new ArrayList<IArea>();
+    collectItems(fragment, items);
+
+    classifier = new Classifier(720, 1280);
+    alternatives = new ArrayList<AlternativeInfo>();
+    for (int i = 0; i < 50; i++) {
+      Fragment alternative = FragmentCopier.copy(permutations.get(i), new IdentityHashMap<IArea, IArea>());
+      Classification classification = classifier.classify(alternative, new TrafoHistory());
+      alternatives.add(new AlternativeInfo(alternative, classification, classifier.objectiveValue(classification), ""));
+    }
+    almFragment = toLayoutElements(fragment);
+  }
+
+  /**
+   * ALMLayoutWriter works on LayoutElement cookies, the DOM elements of the leafs are converted once.
+   */
+  static private Fragment toLayoutElements(Fragment fragment) {
+    Map<IArea, IArea> leafs = new IdentityHashMap<IArea, IArea>();
+    Fragment copy = FragmentCopier.copy(fragment, leafs);
+    for (IArea leaf : leafs.values()) {
+      Element element = (Element)leaf.getCookie();
+      LayoutElement layoutElement = new LayoutElement(element.getTagName());
+      NamedNodeMap attributes = element.getAttributes();
+      for (int i = 0; i < attributes.getLength(); i++)
+        layoutElement.setAttribute(attributes.item(i).getNodeName(), attributes.item(i).getNodeValue());
+      leaf.setCookie(layoutElement);
+    }
+    return copy;
+  }
+
+  static private void collectItems(Fragment fragment, List<IArea> items) {
+    for (IArea item : (Iterable<IArea>)fragment.getItems()) {
+      items.add(item);
+      if (item instanceof Fragment)
+        collectItems((Fragment)item, items);
+    }
+  }
+
+  @Benchmark
+  public List<Fragment> groupDetection() {
+    return new FilteredGroupDetector().detect(fragment);
+  }
+
+  /**
+   * The comparator the group detection uses to find equal subtrees, all pairs of the tree's items.
+   */
+  @Benchmark
+  public void signatureComparator(Blackhole blackhole) {
+    Comparator<IArea> comparator = new AreaSignatures().getComparator();
+    for (IArea item0 : items) {
+      for (IArea item1 : items)
+        blackhole.consume(comparator.compare(item0, item1));
+    }
+  }
+
+  @Benchmark
+  public int fragmentIndex() {
+    FragmentIndex<Fragment> index = new FragmentIndex<Fragment>();
+    for (Fragment permutation : permutations)
+      index.put(permutation, permutation);
+    return index.size();
+  }
+
+  @Benchmark
+  public int subtreeMemo() {
+    SubtreeMemo memo = new SubtreeMemo();
+    long hash = 0;
+    for (Fragment permutation : permutations)
+      hash += memo.hash(permutation);
+    return (int)hash;
+  }
+
+  @Benchmark
+  public double classify() {
+    Classification classification = classifier.classify(fragment, new TrafoHistory());
+    return classifier.objectiveValue(classification);
+  }
+
+  @Benchmark
+  public double objectiveValue() {
+    double sum = 0;
+    for (AlternativeInfo alternative : alternatives)
+      sum += classifier.objectiveValue(alternative.getClassification());
+    return sum;
+  }
+
+  @Benchmark
+  public List<AlternativeInfo> sortByObjectiveValue() {
+    List<AlternativeInfo> list = new ArrayList<AlternativeInfo>(alternatives);
+    Collections.reverse(list);
+    AlternativeController controller = new AlternativeController("benchmark", list);
+    controller.sortByObjectiveValue();
+    return controller.getAlternatives();
+  }
+
+  @Benchmark
+  public List<AlternativeInfo> topAlternatives() {
+    TopAlternatives top = new TopAlternatives(10);
+    for (AlternativeInfo alternative : alternatives)
+      top.offer(alternative);
+    return top.toList();
+  }
+
+  /**
+   * The constraints of the ALM layout, the attributes of the previous invocation are updated like when an ALM layout is
+   * written again.
+   */
+  @Benchmark
+  public Fragment almConstraints() {
+    ALMLayoutWriter.updateConstraints(almFragment);
+    return almFragment;
+  }
+
+  static public void main(String[] args) throws Exception {
+    Options options = new OptionsBuilder()
+      .include(AlternativeBenchmark.class.getSimpleName())
+      .addProfiler(GCProfiler.class)
+      .build();
+    new Runner(options).run();
+  }
+}
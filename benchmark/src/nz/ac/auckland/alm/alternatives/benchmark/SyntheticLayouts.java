@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.ac.auckland.alm.alternatives.benchmark;
+
+import nz.ac.auckland.alm.Area;
+import nz.ac.auckland.alm.IArea;
+import nz.ac.auckland.alm.algebra.Fragment;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+
+/**
+ * Generates fragment trees that don't need the IDE.
+ *
+ * The cookies are DOM elements like the ones of DomLayoutParser: leafs are TextView, EditText, Button or ImageView elements
+ * with a unique android:id and groups are LinearLayout elements. So the synthetic layouts look like parsed views to the
+ * group detection, the fragment hashing and the measure cost term.
+ */
+public class SyntheticLayouts {
+  static final private String[] TYPES = {"TextView", "EditText", "Button", "ImageView"};
+
+  /**
+   * Creates the areas and their DOM elements of one layout.
+   */
+  static private class Generator {
+    final private Document document;
+    final private Random random;
+    private int viewCount = 0;
+
+    Generator(Random random) {
+      try {
+        this.document = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+      } catch (ParserConfigurationException e) {
+        throw new IllegalStateException(e);
+      }
+      this.random = random;
+    }
+
+    IArea create(int depth, int width, boolean horizontal) {
+      if (depth == 0)
+        return createLeaf(TYPES[random.nextInt(TYPES.length)]);
+      Fragment fragment = Fragment.createEmptyFragment(horizontal ? Fragment.horizontalDirection
+                                                                  : Fragment.verticalDirection);
+      Element layout = document.createElement("LinearLayout");
+      layout.setAttribute("android:orientation", horizontal ? "horizontal" : "vertical");
+      fragment.setCookie(layout);
+      for (int i = 0; i < width; i++) {
+        // label-text pairs like in forms
+        if (depth == 1 && i + 1 < width && random.nextBoolean()) {
+          add(fragment, layout, createLeaf("TextView"));
+          add(fragment, layout, createLeaf("EditText"));
+          i++;
+          continue;
+        }
+        add(fragment, layout, create(depth - 1, width, !horizontal));
+      }
+      return fragment;
+    }
+
+    private void add(Fragment fragment, Element layout, IArea item) {
+      fragment.add(item, false);
+      layout.appendChild((Element)item.getCookie());
+    }
+
+    private Area createLeaf(String type) {
+      Element view = document.createElement(type);
+      view.setAttribute("android:id", "@+id/view" + viewCount++);
+      view.setAttribute("android:layout_width", "wrap_content");
+      view.setAttribute("android:layout_height", "wrap_content");
+      Area area = new Area();
+      area.setId(type);
+      area.setCookie(view);
+      int width = 40 + random.nextInt(200);
+      int height = 30 + random.nextInt(30);
+      area.setMinSize(new Area.Size(width / 2, height));
+      area.setPreferredSize(new Area.Size(width, height));
+      area.setMaxSize(new Area.Size(Area.Size.UNDEFINED, Area.Size.UNDEFINED));
+      return area;
+    }
+  }
+
+  /**
+   * @param depth number of group levels
+   * @param width number of items per group
+   */
+  static public Fragment create(int depth, int width, long seed) {
+    return (Fragment)new Generator(new Random(seed)).create(depth, width, true);
+  }
+
+  /**
+   * @return a permutation of the fragment that shares the leafs, on average every second group is shuffled
+   */
+  static public Fragment permute(Fragment fragment, Random random) {
+    Fragment copy = Fragment.createEmptyFragment(fragment.isHorizontalDirection() ? Fragment.horizontalDirection
+                                                                                  : Fragment.verticalDirection);
+    copy.setCookie(fragment.getCookie());
+    List<IArea> items = new ArrayList<IArea>();
+    for (IArea item : (Iterable<IArea>)fragment.getItems())
+      items.add(item instanceof Fragment ? permute((Fragment)item, random) : item);
+    if (random.nextBoolean())
+      Collections.shuffle(items, random);
+    for (IArea item : items)
+      copy.add(item, false);
+    return copy;
+  }
+}
@@ -0,0 +1,23 @@
+#!/bin/sh
+# Generates layout alternatives of all layouts in a res directory without an IDE, see BatchGenerator.
+#
+# Usage: bin/batch-generator.sh <res dir> [--screen <width>x<height>] [--target <dir>:<width>x<height>]...
+#        [--profile quick|balanced|exhaustive] [--top <n>] [--force]
+#
+# ALM_JAR defaults to lib/alm-1.0.jar and PLUGIN_CLASSES to the IDE module output, e.g.
+# out/production/layoutalternatives.
+
+ROOT=$(cd "$(dirname "$0")/.." && pwd)
+ALM_JAR=${ALM_JAR:-$ROOT/lib/alm-1.0.jar}
+PLUGIN_CLASSES=${PLUGIN_CLASSES:-$ROOT/out/production/layoutalternatives}
+
+if [ ! -f "$ALM_JAR" ]; then
+  echo "ALM jar not found: $ALM_JAR" >&2
+  exit 1
+fi
+if [ ! -d "$PLUGIN_CLASSES" ]; then
+  echo "Plugin classes not found: $PLUGIN_CLASSES" >&2
+  exit 1
+fi
+
+exec java ${JAVA_OPTS} -cp "$PLUGIN_CLASSES:$ALM_JAR" nz.ac.auckland.alm.alternatives.BatchGenerator "$@"
@@ -20,17 +20,12 @@ import com.android.annotations.Nullable;
 import com.android.resources.ResourceType;
 import com.android.tools.idea.res.AppResourceRepository;
 import com.android.tools.idea.res.ResourceHelper;
-import com.android.tools.idea.uibuilder.model.NlComponent;
 import com.intellij.lang.LanguageNamesValidation;
 import com.intellij.lang.java.JavaLanguage;
 import com.intellij.lang.refactoring.NamesValidator;
-import com.intellij.openapi.module.Module;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.text.StringUtil;
-import com.intellij.psi.PsiElement;
-import com.intellij.psi.XmlElementFactory;
 import com.intellij.psi.xml.XmlAttribute;
-import com.intellij.psi.xml.XmlDocument;
 import com.intellij.psi.xml.XmlFile;
 import com.intellij.psi.xml.XmlTag;
 import nz.ac.auckland.alm.*;
@@ -46,19 +41,32 @@ import static com.android.SdkConstants.*;
 
 /**
  * Ported from NlComponent.
+ *
+ * The existing ids of the module are read once per TagId, i.e. once per write pass. New ids are numbered by a counter per
+ * id prefix and are only set on the tags when applyIds() is called.
  */
 class TagId {
-  private List<String> myAddedIds = new ArrayList<String>();
+  final private AndroidFacet myFacet;
+  // ids of the module and the ids assigned so far
+  private Set<String> myIds;
+  final private Map<String, Integer> myNextIndex = new HashMap<String, Integer>();
+  final private Map<String, String> myPrefixes = new HashMap<String, String>();
+  final private Map<LayoutElement, String> myAssignedIds = new LinkedHashMap<LayoutElement, String>();
+  private NamesValidator myValidator;
+
+  public TagId(@NonNull AndroidFacet facet) {
+    this.myFacet = facet;
+  }
 
   /** Returns the ID of this component */
   @Nullable
-  static public String getId(@NonNull XmlTag tag) {
+  static public String getId(@NonNull LayoutElement tag) {
     return getId(tag, ANDROID_NS_NAME_PREFIX + ATTR_ID);
   }
 
   @Nullable
-  static public String getId(@NonNull XmlTag tag, String attributeName) {
-    String id = tag.getAttributeValue(attributeName);
+  static public String getId(@NonNull LayoutElement tag, String attributeName) {
+    String id = tag.getAttribute(attributeName);
     if (id != null) {
       if (id.startsWith(NEW_ID_PREFIX)) {
         return id.substring(NEW_ID_PREFIX.length());
@@ -71,14 +79,25 @@ class TagId {
 
 
   /** Returns the ID, but also assigns a default id if the component does not already have an id (even if the component does
-   * not need one according to {@link #needsDefaultId()} */
-  public String ensureId(@NonNull XmlTag tag, @NonNull AndroidFacet facet) {
-    String id = getId(tag);
+   * not need one according to {@link #needsDefaultId()}. The new id is only set on the tag in applyIds(). */
+  public String ensureId(@NonNull LayoutElement tag) {
+    String id = myAssignedIds.get(tag);
+    if (id != null)
+      return id;
+    id = getId(tag);
     if (!id.equals("")) {
       return id;
     }
 
-    return assignId(facet, tag, getIds(facet));
+    if (myIds == null) {
+      myIds = new HashSet<String>(getIds(myFacet));
+      // Ensure that we don't create something like "switch" as an id, which won't compile when used
+      // in the R class
+      myValidator = LanguageNamesValidation.INSTANCE.forLanguage(JavaLanguage.INSTANCE);
+    }
+    id = assignId(tag.getName());
+    myAssignedIds.put(tag, id);
+    return id;
   }
 
   /** Looks up the existing set of id's reachable from the given module */
@@ -87,41 +106,46 @@ class TagId {
     return resources.getItemsOfType(ResourceType.ID);
   }
 
-  public String assignId(@NonNull AndroidFacet facet, @NonNull XmlTag tag, @NonNull Collection<String> idList) {
-    String idValue = StringUtil.decapitalize(tag.getName());
-
-    Module module = facet.getModule();
-    Project project = module.getProject();
-    idValue = ResourceHelper.prependResourcePrefix(module, idValue);
-
-    String nextIdValue = idValue;
-    int index = 0;
-
-    // Ensure that we don't create something like "switch" as an id, which won't compile when used
-    // in the R class
-    NamesValidator validator = LanguageNamesValidation.INSTANCE.forLanguage(JavaLanguage.INSTANCE);
-
-    while (idList.contains(nextIdValue) || myAddedIds.contains(nextIdValue) || validator != null
-                                                                               && validator.isKeyword(nextIdValue, project)) {
-      ++index;
-      if (index == 1 && (validator == null || !validator.isKeyword(nextIdValue, project))) {
-        nextIdValue = idValue;
-      } else {
-        nextIdValue = idValue + Integer.toString(index);
-      }
-    }
+  private boolean isKeyword(String id) {
+    return myValidator != null && myValidator.isKeyword(id, myFacet.getModule().getProject());
+  }
 
-    String newId = idValue + (index == 0 ? "" : Integer.toString(index));
-    //tag.setAttribute(ATTR_ID, ANDROID_URI, NEW_ID_PREFIX + newId);
-    tag.setAttribute(ANDROID_NS_NAME_PREFIX + ATTR_ID, NEW_ID_PREFIX + newId);
-    myAddedIds.add(newId);
+  private String assignId(String tagName) {
+    String idValue = myPrefixes.get(tagName);
+    if (idValue == null) {
+      idValue = ResourceHelper.prependResourcePrefix(myFacet.getModule(), StringUtil.decapitalize(tagName));
+      myPrefixes.put(tagName, idValue);
+    }
+
+    // like NlComponent: use the plain prefix, then continue with 2, or with 1 if the prefix is a keyword
+    boolean keyword = isKeyword(idValue);
+    Integer next = myNextIndex.get(idValue);
+    int index = next != null ? next : 0;
+    String newId;
+    while (true) {
+      boolean skip = (index == 0 && keyword) || (index == 1 && !keyword);
+      newId = idValue + (index == 0 ? "" : Integer.toString(index));
+      if (!skip && !myIds.contains(newId) && !isKeyword(newId))
+        break;
+      index++;
+    }
+    myNextIndex.put(idValue, index + 1);
+    myIds.add(newId);
     return newId;
   }
 
+  /**
+   * Sets the ids assigned by ensureId() on their tags.
+   */
+  public void applyIds() {
+    for (Map.Entry<LayoutElement, String> entry : myAssignedIds.entrySet())
+      entry.getKey().setAttribute(ANDROID_NS_NAME_PREFIX + ATTR_ID, NEW_ID_PREFIX + entry.getValue());
+    myAssignedIds.clear();
+  }
 }
 
 
-class ALMLayoutWriter {
+public class ALMLayoutWriter {
   // ALMLayout layout params:
   public static final String ATTR_LAYOUT_ALIGN_LEFT = "layout_alignLeft";
   public static final String ATTR_LAYOUT_ALIGN_RIGHT = "layout_alignRight";
@@ -277,35 +301,29 @@ class ALMLayoutWriter {
 
   final private XmlTag sourceRoot;
   final private LayoutSpec myLayoutSpec;
-  final private AndroidFacet myFacet;
-  final private TagId myTagId = new TagId();
+  final private TagId myTagId;
 
   public ALMLayoutWriter(XmlTag sourceRoot, LayoutSpec layoutSpec, AndroidFacet facet) {
     this.sourceRoot = sourceRoot;
     this.myLayoutSpec = layoutSpec;
-    this.myFacet = facet;
+    this.myTagId = new TagId(facet);
   }
 
-  private static XmlAttribute getAttribute(XmlTag tag, String attributeName) {
+  private static String getAttribute(LayoutElement tag, String attributeName) {
     return tag.getAttribute("ale:" + attributeName);
   }
 
-  private static void setAttribute(XmlTag tag, String attributeName, String value) {
+  private static void setAttribute(LayoutElement tag, String attributeName, String value) {
     tag.setAttribute("ale:" + attributeName, value);
   }
 
-  private static void clearAttribute(XmlTag tag, String attributeName) {
-    XmlAttribute attribute = getAttribute(tag, attributeName);
-    if (attribute != null)
-      attribute.delete();
+  private static void clearAttribute(LayoutElement tag, String attributeName) {
+    tag.removeAttribute("ale:" + attributeName);
   }
 
   @NotNull
-  static private String getAttrValue(XmlTag tag, String attribute) {
-    XmlAttribute attr = getAttribute(tag, attribute);
-    if (attr == null)
-      return "";
-    String value = attr.getValue();
+  static private String getAttrValue(LayoutElement tag, String attribute) {
+    String value = getAttribute(tag, attribute);
     if (value == null)
       return "";
     return value;
@@ -315,54 +333,55 @@ class ALMLayoutWriter {
     return area instanceof Area;
   }
 
-  class AreaFilter implements Iterable<Area> {
-    final List<IArea> myList;
-    final Area myVeto;
+  /**
+   * Tab names used in one direction. New tab names are numbered by a counter.
+   */
+  static private class TabNames {
+    final private String myPrefix;
+    final private Set<String> myNames = new HashSet<String>();
+    private int myNext = 0;
 
-    public AreaFilter(List<IArea> list) {
-      this(list, null);
+    public TabNames(String prefix) {
+      this.myPrefix = prefix;
     }
 
-    public AreaFilter(List<IArea> list, Area veto) {
-      this.myList = list;
-      this.myVeto = veto;
+    public void add(String tabName) {
+      myNames.add(tabName);
     }
 
-    @Override
-    public Iterator<Area> iterator() {
-      return new Iterator<Area>() {
-        int myPosition = 0;
-
-        @Override
-        public boolean hasNext() {
-          for (; myPosition < myList.size(); myPosition++) {
-            IArea area = myList.get(myPosition);
-            if (area == myVeto)
-              continue;
-            if (isArea(area)) {
-              return true;
-            }
-          }
-          return false;
-        }
-
-        @Override
-        public Area next() {
-          Area area = (Area)myList.get(myPosition);
-          myPosition++;
-          return area;
-        }
-
-        @Override
-        public void remove() {
-
-        }
-      };
+    /**
+     * @return a new unique tab name, the tab names only grow so names below the counter stay taken
+     */
+    public String createUnique() {
+      String tabName = myPrefix + myNext;
+      while (myNames.contains(tabName)) {
+        myNext++;
+        tabName = myPrefix + myNext;
+      }
+      myNames.add(tabName);
+      return tabName;
     }
   }
 
-  private XmlTag getTagFor(IArea area) {
-    return (XmlTag)area.getCookie();
+  // areas of the edge area lists, computed once per list
+  final private Map<List<IArea>, List<Area>> myEdgeAreas = new IdentityHashMap<List<IArea>, List<Area>>();
+  private Area myLastArea;
+
+  private List<Area> getEdgeAreas(List<IArea> list) {
+    List<Area> areas = myEdgeAreas.get(list);
+    if (areas != null)
+      return areas;
+    areas = new ArrayList<Area>(list.size());
+    for (IArea area : list) {
+      if (isArea(area))
+        areas.add((Area)area);
+    }
+    myEdgeAreas.put(list, areas);
+    return areas;
+  }
+
+  private LayoutElement getTagFor(IArea area) {
+    return (LayoutElement)area.getCookie();
   }
 
   private Area getLastArea() {
@@ -375,9 +394,17 @@ class ALMLayoutWriter {
     return null;
   }
 
+  static private boolean hasAreas(List<Area> areas, Area veto) {
+    for (Area area : areas) {
+      if (area != veto)
+        return true;
+    }
+    return false;
+  }
+
   private <Tab extends Variable, OrthTab extends Variable>
-  void writeSpecs(XmlTag tag, Area area, Map<Tab, Edge> map, List<String> tabNames, ITagDirection direction,
-                  List<Area> handledAreas) {
+  void writeSpecs(LayoutElement tag, Area area, Map<Tab, Edge> map, TabNames tabNames, ITagDirection direction,
+                  Set<Area> handledAreas) {
     // Important: when new component are just added to the layout and the xml file is first read the new components don't have a id yet.
     // Thus, don't add references to items without an id! Also see pickArea.
 
@@ -393,11 +420,10 @@ class ALMLayoutWriter {
     assert edge != null;
 
     // tab tags
-    XmlAttribute tabTag = getAttribute(tag, direction.getTabTag());
-    if (tabTag != null) {
-      String tabName = tabTag.getValue();
-      Iterable<Area> areas = new AreaFilter(direction.getAreas(edge));
-      Iterable<Area> opAreas = new AreaFilter(direction.getOppositeAreas(edge), area);
+    String tabName = getAttribute(tag, direction.getTabTag());
+    if (tabName != null) {
+      List<Area> areas = getEdgeAreas(direction.getAreas(edge));
+      List<Area> opAreas = getEdgeAreas(direction.getOppositeAreas(edge));
       boolean tabFound = false;
       for (Area neighbour : areas) {
         if (getAttrValue(getTagFor(neighbour), direction.getOppositeTabTag()).equals(tabName)) {
@@ -407,6 +433,8 @@ class ALMLayoutWriter {
       }
       if (!tabFound) {
         for (Area opNeighbour : opAreas) {
+          if (opNeighbour == area)
+            continue;
           if (getAttrValue(getTagFor(opNeighbour), direction.getTabTag()).equals(tabName)) {
             tabFound = true;
             break;
@@ -414,8 +442,7 @@ class ALMLayoutWriter {
         }
       }
       if (tabFound) {
-        if (!tabNames.contains(tabName))
-          tabNames.add(tabName);
+        tabNames.add(tabName);
         setAttribute(tag, direction.getTabTag(), tabName);
         clearAttribute(tag, direction.getConnectionTag());
         clearAttribute(tag, direction.getAlignTag());
@@ -425,26 +452,26 @@ class ALMLayoutWriter {
     }
 
     // don't refer to the latest area
-    Area lastArea = getLastArea();
+    Area lastArea = myLastArea;
     // Add either a connect, an align tag or a tab:
     Area connectToArea = null;
     String connectAttribute = null;
     String checkForDuplicatesAttribute = null;
     List<IArea> checkForDuplicatesAreas = null;
-    Iterator<Area> neighbours = new AreaFilter(direction.getAreas(edge)).iterator();
-    Iterator<Area> oppositeNeighbours = new AreaFilter(direction.getOppositeAreas(edge), area).iterator();
-    if (neighbours.hasNext()) {
+    List<Area> neighbours = getEdgeAreas(direction.getAreas(edge));
+    List<Area> oppositeNeighbours = getEdgeAreas(direction.getOppositeAreas(edge));
+    if (!neighbours.isEmpty()) {
       // connect to
-      connectToArea = pickArea(neighbours, handledAreas, lastArea);
+      connectToArea = pickArea(neighbours, handledAreas, lastArea, null);
       connectAttribute = direction.getConnectionTag();
       checkForDuplicatesAttribute = direction.getOppositeConnectionTag();
       checkForDuplicatesAreas = direction.getAreas(edge);
       clearAttribute(tag, direction.getTabTag());
       clearAttribute(tag, direction.getAlignTag());
     }
-    if (connectToArea == null && oppositeNeighbours.hasNext()) {
+    if (connectToArea == null && hasAreas(oppositeNeighbours, area)) {
       // align with
-      connectToArea = pickArea(oppositeNeighbours, handledAreas, lastArea);
+      connectToArea = pickArea(oppositeNeighbours, handledAreas, lastArea, area);
       connectAttribute = direction.getAlignTag();
       checkForDuplicatesAttribute = direction.getOppositeAlignTag();
       checkForDuplicatesAreas = direction.getOppositeAreas(edge);
@@ -452,13 +479,9 @@ class ALMLayoutWriter {
       clearAttribute(tag, direction.getConnectionTag());
     }
     if (connectToArea == null) {
-      // reset iterators
-      neighbours = new AreaFilter(direction.getAreas(edge)).iterator();
-      oppositeNeighbours = new AreaFilter(direction.getOppositeAreas(edge), area).iterator();
-      if (!neighbours.hasNext() && !oppositeNeighbours.hasNext()){
+      if (neighbours.isEmpty() && !hasAreas(oppositeNeighbours, area)){
         // add tab
-        String uniqueTabName = getUniqueTabName(tabNames, direction.getTab(area));
-        tabNames.add(uniqueTabName);
+        String uniqueTabName = tabNames.createUnique();
         setAttribute(tag, direction.getTabTag(), uniqueTabName);
         clearAttribute(tag, direction.getConnectionTag());
         clearAttribute(tag, direction.getAlignTag());
@@ -480,7 +503,7 @@ class ALMLayoutWriter {
         continue;
       if (!handledAreas.contains(neighbour))
         continue;
-      XmlTag neighbourTag = getTagFor(neighbour);
+      LayoutElement neighbourTag = getTagFor(neighbour);
       String neighbourId = TagId.getId(neighbourTag, "ale:" + checkForDuplicatesAttribute);
       if (neighbourId.equals(TagId.getId(tag))) {
         clearAttribute(tag, connectAttribute);
@@ -489,106 +512,94 @@ class ALMLayoutWriter {
       }
     }*/
 
-    setAttribute(tag, connectAttribute, ID_PREFIX + myTagId.ensureId(getTagFor(connectToArea), myFacet));
-  }
-
-  static private String getUniqueTabName(List<String> tabNames, Variable tab) {
-    String directionName;
-    if (tab instanceof XTab)
-      directionName = "x";
-    else
-      directionName = "y";
-    for (int i = 0; ; i++) {
-      String tabName = directionName + i;
-      boolean containsName = false;
-      for (String string : tabNames) {
-        if (string.equals(tabName)) {
-          containsName = true;
-          break;
-        }
-      }
-      if (!containsName)
-        return tabName;
-    }
+    setAttribute(tag, connectAttribute, ID_PREFIX + myTagId.ensureId(getTagFor(connectToArea)));
   }
 
   private void updateConstraints() {
     AlgebraData algebraData = new AlgebraData(myLayoutSpec, null);
     Map<XTab, Edge> xTabEdgeMap = algebraData.getXTabEdges();
     Map<YTab, Edge> yTabEdgeMap = algebraData.getYTabEdges();
-    final List<String> xTabNames = new ArrayList<String>();
-    final List<String> yTabNames = new ArrayList<String>();
+    final TabNames xTabNames = new TabNames("x");
+    final TabNames yTabNames = new TabNames("y");
+    myEdgeAreas.clear();
+    myLastArea = getLastArea();
 
-    List<Area> handledAreas = new ArrayList<Area>();
+    Set<Area> handledAreas = Collections.newSetFromMap(new IdentityHashMap<Area, Boolean>());
     // We have to process the children in the correct order so don't iterate over the map directly! see writeSpecs for more info
+    ITagDirection left = new LeftTagDirection();
+    ITagDirection top = new TopTagDirection();
+    ITagDirection right = new RightTagDirection();
+    ITagDirection bottom = new BottomTagDirection();
     for (Area area : algebraData.getAreas()) {
-      writeSpecs(getTagFor(area), area, xTabEdgeMap, xTabNames, new LeftTagDirection(), handledAreas);
-      writeSpecs(getTagFor(area), area, yTabEdgeMap, yTabNames, new TopTagDirection(), handledAreas);
-      writeSpecs(getTagFor(area), area, xTabEdgeMap, xTabNames, new RightTagDirection(), handledAreas);
-      writeSpecs(getTagFor(area), area, yTabEdgeMap, yTabNames, new BottomTagDirection(), handledAreas);
+      writeSpecs(getTagFor(area), area, xTabEdgeMap, xTabNames, left, handledAreas);
+      writeSpecs(getTagFor(area), area, yTabEdgeMap, yTabNames, top, handledAreas);
+      writeSpecs(getTagFor(area), area, xTabEdgeMap, xTabNames, right, handledAreas);
+      writeSpecs(getTagFor(area), area, yTabEdgeMap, yTabNames, bottom, handledAreas);
       handledAreas.add(area);
     }
   }
 
-  static public void write(XmlTag sourceRoot, Fragment fragment, XmlFile outFile, Project project, AndroidFacet facet) {
+  /**
+   * Sets the constraint attributes on the LayoutElement cookies of the fragment's views without writing a file, e.g. for
+   * the benchmarks. All views must have an id, new ids are only assigned with the ids of the module.
+   */
+  static public void updateConstraints(Fragment fragment) {
     LayoutSpec layoutSpec = FragmentUtils.toLayoutSpec(fragment);
     LayoutSpec clone = layoutSpec.clone();
     layoutSpec.release();
-    ALMLayoutWriter writer = new ALMLayoutWriter(sourceRoot, clone, facet);
-    writer.write(outFile, project);
+    new ALMLayoutWriter(null, clone, null).updateConstraints();
     clone.release();
   }
 
-  static private void copyAttributes(XmlTag source, XmlTag target) {
-    for (XmlAttribute attribute : source.getAttributes())
-      target.setAttribute(attribute.getName(), attribute.getDisplayValue());
-  }
-
-  static private XmlTag copy(XmlTag tag, XmlElementFactory factory) {
-    XmlTag copy = factory.createTagFromText("<" + tag.getName() + "/>");
-    copyAttributes(tag, copy);
-    for (PsiElement child : tag.getChildren()) {
-      if (!(child instanceof XmlTag))
-        continue;
-      copy.add(copy((XmlTag)child, factory));
-    }
-    return copy;
+  /**
+   * @param prolog text written before the root tag, e.g. the prolog of the source layout
+   */
+  static public void write(XmlTag sourceRoot, Fragment fragment, XmlFile outFile, String prolog, Project project,
+                           AndroidFacet facet) {
+    LayoutSpec layoutSpec = FragmentUtils.toLayoutSpec(fragment);
+    LayoutSpec clone = layoutSpec.clone();
+    layoutSpec.release();
+    ALMLayoutWriter writer = new ALMLayoutWriter(sourceRoot, clone, facet);
+    writer.write(outFile, prolog, project);
+    clone.release();
   }
 
-  public void write(XmlFile outFile, Project project) {
-    XmlElementFactory factory = XmlElementFactory.getInstance(project);
-    XmlDocument xmlDocument = outFile.getDocument();
-    if (xmlDocument.getRootTag() != null)
-      xmlDocument.getRootTag().delete();
-    XmlTag rootTag = factory.createTagFromText("<nz.ac.auckland.alm.android.ALMLayout/>");
+  /**
+   * Assembles the layout from LayoutElements and writes it to the file as text in one document change.
+   */
+  public void write(XmlFile outFile, String prolog, Project project) {
+    LayoutElement rootTag = new LayoutElement("nz.ac.auckland.alm.android.ALMLayout");
     rootTag.setAttribute("xmlns:android", "http://schemas.android.com/apk/res/android");
     rootTag.setAttribute("xmlns:ale", "http://schemas.android.com/apk/res-auto");
     rootTag.setAttribute("android:layout_width", "match_parent");
     rootTag.setAttribute("android:layout_height", "match_parent");
-    copyAttributes(sourceRoot, rootTag);
+    for (XmlAttribute attribute : sourceRoot.getAttributes())
+      rootTag.setAttribute(attribute.getName(), attribute.getValue());
 
     // copy tags
     for (IArea area : myLayoutSpec.getAreas()) {
       if (!(area instanceof Area))
         continue;
-      XmlTag tagCopy = copy(((NlComponent)area.getCookie()).getTag(), factory);
+      LayoutElement tagCopy = LayoutElement.copy(LayoutSnapshot.getTag(area.getCookie()), true);
       area.setCookie(tagCopy);
     }
 
     updateConstraints();
+    myTagId.applyIds();
 
     // add tags to root
     for (IArea area : myLayoutSpec.getAreas()) {
       if (!(area instanceof Area))
         continue;
-      rootTag.add((XmlTag)area.getCookie());
+      rootTag.addChild((LayoutElement)area.getCookie());
     }
-    xmlDocument.add(rootTag);
+    LayoutElement.writeDocument(project, outFile, prolog, rootTag);
   }
 
-  static private Area pickArea(Iterator<Area> areas, List<Area> handledAreas, Area veto) {
-    while (areas.hasNext()) {
-      Area area = areas.next();
+  static private Area pickArea(List<Area> areas, Set<Area> handledAreas, Area veto, Area excluded) {
+    for (Area area : areas) {
+      if (area == excluded)
+        continue;
       if (!handledAreas.contains(area))
         continue;
       if (area == veto)
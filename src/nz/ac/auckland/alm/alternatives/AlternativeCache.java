@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.ac.auckland.alm.alternatives;
+
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import nz.ac.auckland.alm.algebra.Fragment;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+
+/**
+ * Persistent cache of the ranked alternatives of a layout.
+ *
+ * The key is a hash of the layout XML, the search configuration and the target size. Only the structure of the
+ * alternatives is stored (see FragmentCodec), the alternatives have to be classified again after loading. The cache is
+ * stored in the system directory of the project and the least recently used entries are evicted when the cache grows
+ * beyond MAX_SIZE.
+ */
+public class AlternativeCache {
+  private static final Logger LOG = Logger.getInstance(AlternativeCache.class);
+
+  static final private int VERSION = 1;
+  static final private long MAX_SIZE = 32 * 1024 * 1024;
+  static final private String SUFFIX = ".alt";
+
+  final private File directory;
+
+  public AlternativeCache(Project project) {
+    this(new File(PathManager.getSystemPath(), "layoutalternatives" + File.separator + project.getLocationHash()
+                                               + File.separator + "alternatives"));
+  }
+
+  public AlternativeCache(File directory) {
+    this.directory = directory;
+  }
+
+  static public String createKey(String layoutText, String configuration, int targetWidth, int targetHeight) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-1");
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    }
+    Charset utf8 = Charset.forName("UTF-8");
+    digest.update(layoutText.getBytes(utf8));
+    digest.update((byte)0);
+    digest.update(configuration.getBytes(utf8));
+    digest.update((byte)0);
+    digest.update((targetWidth + "x" + targetHeight).getBytes(utf8));
+
+    StringBuilder key = new StringBuilder();
+    for (byte b : digest.digest())
+      key.append(String.format("%02x", b));
+    return key.toString();
+  }
+
+  private File getFile(String key) {
+    return new File(directory, key + SUFFIX);
+  }
+
+  /**
+   * @param original the layout the alternatives have been derived from
+   * @return the cached alternatives or null if there are none
+   */
+  public synchronized List<Fragment> load(String key, Fragment original) {
+    File file = getFile(key);
+    if (!file.exists())
+      return null;
+
+    FragmentCodec codec = new FragmentCodec(original);
+    try {
+      DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+      try {
+        if (input.readInt() != VERSION || input.readInt() != codec.getLeafs().size())
+          throw new IOException("Cache entry does not match");
+        int size = FragmentCodec.readVarInt(input);
+        List<Fragment> alternatives = new ArrayList<Fragment>(size);
+        for (int i = 0; i < size; i++)
+          alternatives.add(codec.read(input));
+        // mark as recently used
+        file.setLastModified(System.currentTimeMillis());
+        return alternatives;
+      } finally {
+        input.close();
+      }
+    } catch (IOException e) {
+      LOG.warn("Dropping invalid cache entry " + file, e);
+      file.delete();
+      return null;
+    }
+  }
+
+  /**
+   * @param original the layout the alternatives have been derived from
+   * @param alternatives the ranked alternatives
+   */
+  public synchronized void store(String key, Fragment original, List<Fragment> alternatives) {
+    if (!directory.exists() && !directory.mkdirs()) {
+      LOG.warn("Can't create cache directory " + directory);
+      return;
+    }
+    File file = getFile(key);
+    File tmpFile = new File(directory, key + ".tmp");
+    FragmentCodec codec = new FragmentCodec(original);
+    try {
+      DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+      try {
+        output.writeInt(VERSION);
+        output.writeInt(codec.getLeafs().size());
+        FragmentCodec.writeVarInt(alternatives.size(), output);
+        for (Fragment alternative : alternatives)
+          codec.write(alternative, output);
+      } finally {
+        output.close();
+      }
+      if (file.exists())
+        file.delete();
+      if (!tmpFile.renameTo(file))
+        throw new IOException("Can't rename " + tmpFile);
+    } catch (IOException e) {
+      LOG.warn("Can't write cache entry " + file, e);
+      tmpFile.delete();
+      return;
+    }
+    evict();
+  }
+
+  private void evict() {
+    File[] files = directory.listFiles(new FilenameFilter() {
+      @Override
+      public boolean accept(File dir, String name) {
+        return name.endsWith(SUFFIX);
+      }
+    });
+    if (files == null)
+      return;
+    long size = 0;
+    for (File file : files)
+      size += file.length();
+    if (size <= MAX_SIZE)
+      return;
+
+    Arrays.sort(files, new Comparator<File>() {
+      @Override
+      public int compare(File file0, File file1) {
+        return Long.compare(file0.lastModified(), file1.lastModified());
+      }
+    });
+    for (File file : files) {
+      if (size <= MAX_SIZE)
+        break;
+      size -= file.length();
+      file.delete();
+    }
+  }
+}
@@ -18,32 +18,41 @@ package nz.ac.auckland.alm.alternatives;
 import nz.ac.auckland.alm.Area;
 import nz.ac.auckland.alm.algebra.Fragment;
 import nz.ac.auckland.alm.algebra.trafo.Classification;
-import nz.ac.auckland.alm.algebra.trafo.FragmentAlternatives;
 
 
 public class AlternativeInfo {
-    final private FragmentAlternatives.Result result;
+    final private Fragment fragment;
+    final private Classification classification;
+    // computed once when the alternative is classified, the classifier weights don't change during a session
+    final private double objectiveValue;
     final private String layoutTargetDir;
 
-    public AlternativeInfo(FragmentAlternatives.Result result, String layoutTargetDir) {
-        this.result = result;
+    public AlternativeInfo(Fragment fragment, Classification classification, double objectiveValue,
+                           String layoutTargetDir) {
+        this.fragment = fragment;
+        this.classification = classification;
+        this.objectiveValue = objectiveValue;
         this.layoutTargetDir = layoutTargetDir;
     }
 
-    public FragmentAlternatives.Result getResult() {
-        return result;
+    public Classification getClassification() {
+        return classification;
+    }
+
+    public double getObjectiveValue() {
+        return objectiveValue;
     }
 
     public Fragment getFragment() {
-        return result.fragment;
+        return fragment;
     }
 
     public Area.Size getMinSize() {
-        return ((Classification)result.classification).minSize;
+        return classification.minSize;
     }
 
     public Area.Size getPrefSize() {
-        return ((Classification)result.classification).prefSize;
+        return classification.prefSize;
     }
 
     public double getPrefRatio() {
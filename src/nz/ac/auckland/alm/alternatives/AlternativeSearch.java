@@ -0,0 +1,398 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.ac.auckland.alm.alternatives;
+
+import nz.ac.auckland.alm.IArea;
+import nz.ac.auckland.alm.algebra.Fragment;
+import nz.ac.auckland.alm.algebra.trafo.Classification;
+import nz.ac.auckland.alm.algebra.trafo.FragmentAlternatives;
+import nz.ac.auckland.alm.algebra.trafo.IPermutationSelector;
+import nz.ac.auckland.alm.algebra.trafo.TrafoHistory;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+
+/**
+ * Runs the alternative search for a layout and reports the found alternatives in batches while the search is running.
+ *
+ * The search can run on multiple workers. Each worker has its own copy of the layout, its own classifier, its own selector
+ * chain and its own bounded heap of the best alternatives, so the workers don't share any state while they explore the
+ * permutation space. An alternative is only copied back to the original areas when it enters the preview or when the worker
+ * heaps are merged after the search.
+ *
+ * Further targets can be added with addTarget(). The search is driven by the objective of the main target but every
+ * classified permutation is also classified and scored for the other targets, so several screen configurations share the
+ * parsing, the group detection and the permutation exploration. The classification of a permutation is not reused across
+ * targets since the Classifier may take the target size into account.
+ *
+ * The search is bounded by the k-th best alternative of each worker: every classified permutation is still explored by the
+ * selectors, but a permutation whose objective value can't beat the k-th best alternative is not ranked, copied or
+ * streamed. The objective terms of the Classifier don't provide a lower bound before a permutation is solved, so the
+ * bound is applied after the classification.
+ *
+ * The search doesn't depend on the IDE, the headless BatchGenerator uses it as well.
+ */
+public class AlternativeSearch {
+  /**
+   * Progress of the search, e.g. backed by the progress indicator of an IDE task.
+   */
+  public interface IProgress {
+    boolean isCanceled();
+    void setText(String text);
+  }
+
+  public interface IListener {
+    /**
+     * Called from a search thread with alternatives found since the last call.
+     */
+    void onAlternativesFound(List<AlternativeInfo> alternatives);
+
+    /**
+     * Called from the search thread when the search is done. If the search has been canceled the alternatives found so far
+     * are reported.
+     */
+    void onSearchFinished(List<AlternativeInfo> alternatives, boolean canceled);
+  }
+
+  /**
+   * Creates the search components for a worker. Every worker gets its own instances.
+   */
+  public interface ISetup {
+    SearchClassifier createClassifier();
+    FragmentAlternatives createFragmentAlternatives(SearchClassifier classifier);
+
+    /**
+     * @param worker index of the worker, workers should use different selectors to explore different parts of the
+     *               permutation space
+     * @param stats the stats of the worker the selectors record their time in
+     */
+    IPermutationSelector<Classification> createSelector(FragmentAlternatives fragmentAlternatives, int worker,
+                                                        SearchStats stats);
+  }
+
+  // min time between two batches of alternatives
+  static final private long BATCH_INTERVAL = 500;
+
+  final private Fragment fragment;
+  final private ISetup setup;
+  final private String outputDir;
+  final private int parallelism;
+  final private SearchProfile profile;
+  final private List<Worker> workers = new ArrayList<Worker>();
+
+  final private TopAlternatives found;
+  // the alternatives of the preview, the merged results reuse them so that the ui keeps its selection
+  final private FragmentIndex<AlternativeInfo> streamed = new FragmentIndex<AlternativeInfo>();
+  final private List<AlternativeInfo> batch = new ArrayList<AlternativeInfo>();
+  private volatile int streamedCount = 0;
+  // structural hashes of all classified permutations, permutations found by several workers are only counted once
+  final private Set<Long> evaluated = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+  final private List<SearchTarget> extraTargets = new ArrayList<SearchTarget>();
+  final private List<TopAlternatives> extraFound = new ArrayList<TopAlternatives>();
+  private long lastBatchTime;
+  private volatile boolean canceled = false;
+  private SearchStats stats;
+  private String summary;
+
+  private class Worker extends RecursiveAction {
+    final private int index;
+    final private SearchClassifier classifier;
+    final private SearchClassifier[] extraClassifiers;
+    final private IProgress progress;
+    final private IListener listener;
+    // the best alternatives of this worker, the fragments refer to the areas of the worker copy
+    final private TopAlternatives found;
+    final private TopAlternatives[] extraFound;
+    private Map<IArea, IArea> originals;
+
+    // plateau detection: the best objective values found so far in ascending order
+    final private double[] bestObjectiveValues = new double[SearchProfile.PLATEAU_K];
+    private int bestObjectiveValuesCount = 0;
+    private int classifiedCount = 0;
+    // permutations that couldn't beat the k-th best alternative
+    private int boundedCount = 0;
+    private int lastImprovementCount = 0;
+    private long lastImprovementTime;
+    private boolean converged = false;
+
+    public Worker(int index, IProgress progress, IListener listener) {
+      this.index = index;
+      this.classifier = setup.createClassifier();
+      this.extraClassifiers = new SearchClassifier[extraTargets.size()];
+      this.extraFound = new TopAlternatives[extraTargets.size()];
+      // same objective terms as the main classifier, the measure cost doesn't depend on the target
+      for (int i = 0; i < extraClassifiers.length; i++) {
+        extraClassifiers[i] = new SearchClassifier(extraTargets.get(i).getWidth(), extraTargets.get(i).getHeight(),
+                                                   classifier.getMeasureCost());
+        extraFound[i] = new TopAlternatives(profile.getMaxResults());
+      }
+      this.found = new TopAlternatives(profile.getMaxResults());
+      this.progress = progress;
+      this.listener = listener;
+    }
+
+    @Override
+    protected void compute() {
+      lastImprovementTime = System.currentTimeMillis();
+      // the search works on its own copy, results are mapped back to the original areas
+      Map<IArea, IArea> leafCopies = new IdentityHashMap<IArea, IArea>();
+      Fragment workerFragment = FragmentCopier.copy(fragment, leafCopies);
+      originals = FragmentCopier.invert(leafCopies);
+
+      FragmentAlternatives fragmentAlternatives = setup.createFragmentAlternatives(classifier);
+      IPermutationSelector<Classification> selector = setup.createSelector(fragmentAlternatives, index,
+                                                                          classifier.getStats());
+      classifier.setProgress(progress);
+      classifier.setListener(new SearchClassifier.IListener() {
+        @Override
+        public boolean onClassified(Fragment alternative, TrafoHistory history, Classification classification) {
+          return Worker.this.onClassified(alternative, history, classification);
+        }
+      });
+
+      try {
+        fragmentAlternatives.calculateAlternatives(workerFragment, selector, profile.getMaxResults(), profile.getMaxTime(),
+                                                   profile.getSearchDepth());
+      } catch (SearchClassifier.SearchStoppedException e) {
+        // the alternatives found so far are merged by run()
+      } finally {
+        classifier.setListener(null);
+      }
+    }
+
+    /**
+     * @return true if the alternative has been accepted into the top alternatives of the worker
+     */
+    private boolean onClassified(Fragment alternative, TrafoHistory history, Classification classification) {
+      classifiedCount++;
+      long hash = classifier.getMemo().hash(alternative);
+      evaluated.add(hash);
+      double objectiveValue = classifier.objectiveValue(classification);
+      updatePlateau(objectiveValue);
+      for (int i = 0; i < extraClassifiers.length; i++) {
+        Classification extraClassification = extraClassifiers[i].classifyForTarget(alternative, history);
+        double extraObjectiveValue = extraClassifiers[i].objectiveValue(extraClassification);
+        if (extraFound[i].isCandidate(extraObjectiveValue)) {
+          extraFound[i].offer(new AlternativeInfo(alternative, extraClassification, extraObjectiveValue,
+                                                  extraTargets.get(i).getOutputDir()), hash);
+        }
+      }
+
+      if (!found.isCandidate(objectiveValue)) {
+        boundedCount++;
+        return false;
+      }
+      AlternativeInfo info = new AlternativeInfo(alternative, classification, objectiveValue, outputDir);
+      if (!found.offer(info, hash))
+        return false;
+      // only stream a preview of the first results, the final result list comes with onSearchFinished
+      if (streamedCount < profile.getMaxResults())
+        stream(this, info, hash);
+      return true;
+    }
+
+    /**
+     * @return the alternative with a fragment that refers to the original areas
+     */
+    private AlternativeInfo toOriginal(AlternativeInfo info, String targetDir) {
+      return new AlternativeInfo(FragmentCopier.copy(info.getFragment(), originals), info.getClassification(),
+                                 info.getObjectiveValue(), targetDir);
+    }
+
+    /**
+     * Stops the worker if its best objective values did not improve for a while.
+     */
+    private void updatePlateau(double objectiveValue) {
+      long now = System.currentTimeMillis();
+      if (bestObjectiveValuesCount < bestObjectiveValues.length
+          || objectiveValue < bestObjectiveValues[bestObjectiveValuesCount - 1]) {
+        // insert into the sorted best values
+        int i = Math.min(bestObjectiveValuesCount, bestObjectiveValues.length - 1);
+        while (i > 0 && bestObjectiveValues[i - 1] > objectiveValue) {
+          bestObjectiveValues[i] = bestObjectiveValues[i - 1];
+          i--;
+        }
+        bestObjectiveValues[i] = objectiveValue;
+        bestObjectiveValuesCount = Math.min(bestObjectiveValuesCount + 1, bestObjectiveValues.length);
+        lastImprovementCount = classifiedCount;
+        lastImprovementTime = now;
+        return;
+      }
+
+      boolean plateau = profile.getPlateauIterations() >= 0
+                        && classifiedCount - lastImprovementCount >= profile.getPlateauIterations();
+      plateau |= profile.getPlateauTime() >= 0 && now - lastImprovementTime >= profile.getPlateauTime();
+      if (plateau && !converged) {
+        converged = true;
+        classifier.stop();
+      }
+    }
+  }
+
+  public AlternativeSearch(Fragment fragment, ISetup setup, String outputDir, int parallelism, SearchProfile profile) {
+    this.fragment = fragment;
+    this.setup = setup;
+    this.outputDir = outputDir;
+    this.parallelism = Math.max(1, parallelism);
+    this.profile = profile;
+    this.found = new TopAlternatives(profile.getMaxResults());
+  }
+
+  /**
+   * Adds a further target, must be called before run().
+   */
+  public void addTarget(SearchTarget target) {
+    extraTargets.add(target);
+    extraFound.add(new TopAlternatives(profile.getMaxResults()));
+  }
+
+  /**
+   * @return the ranked alternatives for a target added with addTarget(), available after run()
+   */
+  public synchronized List<AlternativeInfo> getAlternatives(SearchTarget target) {
+    return extraFound.get(extraTargets.indexOf(target)).toList();
+  }
+
+  public void cancel() {
+    canceled = true;
+    synchronized (workers) {
+      for (Worker worker : workers)
+        worker.classifier.stop();
+    }
+  }
+
+  /**
+   * Adds an alternative to the preview. Equivalent alternatives found by different workers are only streamed once, the
+   * alternative is only copied if it is streamed.
+   */
+  private synchronized void stream(Worker worker, AlternativeInfo info, long hash) {
+    if (streamedCount >= profile.getMaxResults() || streamed.get(info.getFragment(), hash) != null)
+      return;
+    AlternativeInfo copy = worker.toOriginal(info, outputDir);
+    streamed.put(copy.getFragment(), hash, copy);
+    streamedCount++;
+    batch.add(copy);
+    flushBatch(worker.listener, false);
+  }
+
+  private synchronized void flushBatch(IListener listener, boolean force) {
+    long now = System.currentTimeMillis();
+    if (batch.isEmpty() || (!force && now - lastBatchTime < BATCH_INTERVAL))
+      return;
+    lastBatchTime = now;
+    listener.onAlternativesFound(new ArrayList<AlternativeInfo>(batch));
+    batch.clear();
+  }
+
+  public void run(IProgress progress, final IListener listener) {
+    progress.setText("Searching layout alternatives");
+    lastBatchTime = System.currentTimeMillis();
+    long startTime = System.currentTimeMillis();
+
+    synchronized (workers) {
+      for (int i = 0; i < parallelism; i++) {
+        Worker worker = new Worker(i, progress, listener);
+        if (canceled)
+          worker.classifier.stop();
+        workers.add(worker);
+      }
+    }
+    ForkJoinPool pool = new ForkJoinPool(parallelism);
+    try {
+      pool.invoke(new RecursiveAction() {
+        @Override
+        protected void compute() {
+          invokeAll(workers);
+        }
+      });
+    } finally {
+      pool.shutdown();
+    }
+
+    long time = System.currentTimeMillis() - startTime;
+    int classifiedCount = 0;
+    int boundedCount = 0;
+    int memoHits = 0;
+    int convergedCount = 0;
+    SearchStats searchStats = new SearchStats();
+    for (Worker worker : workers) {
+      classifiedCount += worker.classifiedCount;
+      boundedCount += worker.boundedCount;
+      memoHits += worker.classifier.getMemo().getHits();
+      if (worker.converged)
+        convergedCount++;
+      searchStats.add(worker.classifier.getStats());
+    }
+    int uniqueCount = evaluated.size();
+    String searchSummary = "Evaluated " + uniqueCount + " unique alternatives (" + uniqueCount * 1000 / Math.max(1, time)
+                           + "/s, " + classifiedCount + " over all workers, " + boundedCount + " bounded, " + memoHits
+                           + " subtree memo hits) in " + time + "ms using " + parallelism + " workers (" + convergedCount
+                           + " converged), " + profile;
+
+    // Merge the worker results, the instances of alternatives that already have been streamed are reused so that the
+    // selection in the ui stays stable. Only alternatives that make it into the merged results are copied.
+    synchronized (this) {
+      stats = searchStats;
+      summary = searchSummary;
+      for (Worker worker : workers) {
+        merge(found, worker.found, worker, outputDir, streamed);
+        for (int i = 0; i < extraTargets.size(); i++)
+          merge(extraFound.get(i), worker.extraFound[i], worker, extraTargets.get(i).getOutputDir(), null);
+      }
+    }
+
+    flushBatch(listener, true);
+    listener.onSearchFinished(getFound(), canceled || progress.isCanceled());
+  }
+
+  /**
+   * @param reported alternatives that have already been reported for this target or null
+   */
+  static private void merge(TopAlternatives target, TopAlternatives workerFound, Worker worker, String targetDir,
+                            FragmentIndex<AlternativeInfo> reported) {
+    for (AlternativeInfo info : workerFound.toList()) {
+      // the list is ordered, no further alternative of this worker gets in
+      if (!target.isCandidate(info.getObjectiveValue()))
+        break;
+      long hash = FragmentIndex.hash(info.getFragment());
+      if (!target.isAdmissible(info.getObjectiveValue(), info.getFragment(), hash))
+        continue;
+      AlternativeInfo original = reported != null ? reported.get(info.getFragment(), hash) : null;
+      target.offer(original != null ? original : worker.toOriginal(info, targetDir));
+    }
+  }
+
+  /**
+   * @return the stats of the last run or null if the search didn't run yet
+   */
+  public synchronized SearchStats getStats() {
+    return stats;
+  }
+
+  /**
+   * @return a one line summary of the last run for the log or null if the search didn't run yet
+   */
+  public synchronized String getSummary() {
+    return summary;
+  }
+
+  private synchronized List<AlternativeInfo> getFound() {
+    return found.toList();
+  }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.ac.auckland.alm.alternatives;
+
+import com.intellij.ide.util.PropertiesComponent;
+
+
+/**
+ * Persistent settings of the alternative search.
+ */
+public class AlternativeSettings {
+  static final private String PREFIX = "nz.ac.auckland.alm.alternatives.";
+  static final private String PROFILE = PREFIX + "profile";
+  static final private String PLATEAU_ITERATIONS = PREFIX + "plateauIterations";
+  static final private String PLATEAU_TIME = PREFIX + "plateauTime";
+
+  final private PropertiesComponent properties;
+
+  public AlternativeSettings(PropertiesComponent properties) {
+    this.properties = properties;
+  }
+
+  static public AlternativeSettings getInstance() {
+    return new AlternativeSettings(PropertiesComponent.getInstance());
+  }
+
+  /**
+   * @return the selected profile with the plateau values overridden if they have been set
+   */
+  public SearchProfile getProfile() {
+    SearchProfile profile = SearchProfile.get(getProfileName());
+    if (profile == null)
+      profile = SearchProfile.BALANCED;
+    if (!properties.isValueSet(PLATEAU_ITERATIONS) && !properties.isValueSet(PLATEAU_TIME))
+      return profile;
+    return profile.withPlateau(properties.getInt(PLATEAU_ITERATIONS, profile.getPlateauIterations()),
+                               properties.getInt(PLATEAU_TIME, (int)profile.getPlateauTime()));
+  }
+
+  public String getProfileName() {
+    return properties.getValue(PROFILE, SearchProfile.BALANCED.getName());
+  }
+
+  public void setProfileName(String name) {
+    if (SearchProfile.get(name) == null)
+      throw new IllegalArgumentException("Unknown search profile: " + name);
+    properties.setValue(PROFILE, name);
+  }
+
+  /**
+   * Overrides the plateau values of the profiles.
+   *
+   * @param plateauIterations classifications without improvement before the search stops, negative to disable
+   * @param plateauTime milliseconds without improvement before the search stops, negative to disable
+   */
+  public void setPlateau(int plateauIterations, int plateauTime) {
+    properties.setValue(PLATEAU_ITERATIONS, Integer.toString(plateauIterations));
+    properties.setValue(PLATEAU_TIME, Integer.toString(plateauTime));
+  }
+
+  /**
+   * Use the plateau values of the profiles again.
+   */
+  public void resetPlateau() {
+    properties.unsetValue(PLATEAU_ITERATIONS);
+    properties.unsetValue(PLATEAU_TIME);
+  }
+}
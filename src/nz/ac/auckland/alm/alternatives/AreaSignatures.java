@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.ac.auckland.alm.alternatives;
+
+import nz.ac.auckland.alm.IArea;
+import nz.ac.auckland.alm.algebra.Fragment;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+
+/**
+ * Structural signatures of areas.
+ *
+ * Two areas have the same signature if they have the same structure and their leafs have the same tag names. Signatures are
+ * interned integers, i.e. there are no collisions. The signature of a leaf is computed once per cookie, so it is shared by
+ * all copies and permutations of the layout for the whole search. The signature of a fragment is computed bottom-up and
+ * kept as long as the fragment holds the same items; permutations share most fragments with the permutation they have
+ * been derived from, so only the fragments of the changed path are visited again.
+ */
+public class AreaSignatures {
+  static final private int MAX_INTERNED = 100000;
+
+  static private class GroupKey {
+    final boolean horizontal;
+    final int[] items;
+    final int hash;
+
+    GroupKey(boolean horizontal, int[] items) {
+      this.horizontal = horizontal;
+      this.items = items;
+      this.hash = 31 * Arrays.hashCode(items) + (horizontal ? 1 : 0);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object object) {
+      if (!(object instanceof GroupKey))
+        return false;
+      GroupKey other = (GroupKey)object;
+      return horizontal == other.horizontal && Arrays.equals(items, other.items);
+    }
+  }
+
+  static private class GroupEntry {
+    final boolean horizontal;
+    final IArea[] items;
+    final int signature;
+
+    GroupEntry(boolean horizontal, IArea[] items, int signature) {
+      this.horizontal = horizontal;
+      this.items = items;
+      this.signature = signature;
+    }
+
+    boolean matches(Fragment fragment) {
+      if (fragment.isHorizontalDirection() != horizontal || fragment.size() != items.length)
+        return false;
+      for (int i = 0; i < items.length; i++) {
+        if (fragment.getItemAt(i) != items[i])
+          return false;
+      }
+      return true;
+    }
+  }
+
+  final private Map<String, Integer> leafIds = new HashMap<String, Integer>();
+  final private Map<GroupKey, Integer> groupIds = new HashMap<GroupKey, Integer>();
+  // leaf signatures by cookie, or by area for leafs without cookie
+  final private Map<Object, Integer> leafCache = new IdentityHashMap<Object, Integer>();
+  final private Map<Fragment, GroupEntry> groupCache = new IdentityHashMap<Fragment, GroupEntry>();
+
+  final private Comparator<IArea> comparator = new Comparator<IArea>() {
+    @Override
+    public int compare(IArea area0, IArea area1) {
+      if (getSignature(area0) == getSignature(area1))
+        return 0;
+      return -1;
+    }
+  };
+
+  /**
+   * @return comparator that returns 0 for areas with the same signature and -1 otherwise
+   */
+  public Comparator<IArea> getComparator() {
+    return comparator;
+  }
+
+  /**
+   * Drops the fragment signatures if there are too many of them. Must not be called while signatures are compared.
+   */
+  public void trim() {
+    if (groupIds.size() + groupCache.size() <= MAX_INTERNED)
+      return;
+    groupIds.clear();
+    groupCache.clear();
+  }
+
+  public int getSignature(IArea area) {
+    if (area instanceof Fragment)
+      return getFragmentSignature((Fragment)area);
+    Object key = area.getCookie() != null ? area.getCookie() : area;
+    Integer signature = leafCache.get(key);
+    if (signature == null) {
+      signature = intern(leafIds, areaId(area));
+      leafCache.put(key, signature);
+    }
+    return signature;
+  }
+
+  static public String areaId(IArea area) {
+    String tagName = LayoutCookies.getTagName(area.getCookie());
+    if (tagName != null)
+      return tagName;
+    if (area.getId() == null)
+      return "area";
+    return area.getId();
+  }
+
+  private int getFragmentSignature(Fragment fragment) {
+    GroupEntry entry = groupCache.get(fragment);
+    if (entry != null && entry.matches(fragment))
+      return entry.signature;
+    IArea[] items = new IArea[fragment.size()];
+    int[] itemSignatures = new int[items.length];
+    for (int i = 0; i < items.length; i++) {
+      items[i] = fragment.getItemAt(i);
+      itemSignatures[i] = getSignature(items[i]);
+    }
+    int signature = intern(groupIds, new GroupKey(fragment.isHorizontalDirection(), itemSignatures));
+    groupCache.put(fragment, new GroupEntry(fragment.isHorizontalDirection(), items, signature));
+    return signature;
+  }
+
+  static private <Key> int intern(Map<Key, Integer> ids, Key key) {
+    Integer id = ids.get(key);
+    if (id == null) {
+      // leaf and group ids must not overlap
+      id = ids.size() * 2 + (key instanceof GroupKey ? 1 : 0);
+      ids.put(key, id);
+    }
+    return id;
+  }
+}
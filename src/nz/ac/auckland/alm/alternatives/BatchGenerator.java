@@ -0,0 +1,305 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.ac.auckland.alm.alternatives;
+
+import nz.ac.auckland.alm.Area;
+import nz.ac.auckland.alm.IArea;
+import nz.ac.auckland.alm.algebra.Fragment;
+import nz.ac.auckland.alm.algebra.trafo.*;
+import org.w3c.dom.Document;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+
+/**
+ * Generates alternatives of all layouts in a res directory for several screen configurations without an IDE, e.g. on a CI
+ * server.
+ *
+ * The layouts are parsed with DomLayoutParser, i.e. the view sizes are estimated, and every layout is searched on its own
+ * thread of a pool with one thread per core. All targets of a layout are scored in a single search (see
+ * AlternativeSearch.addTarget()) and the best alternatives are written to the output directory of each target, by default
+ * res/layout-land and res/layout-port. Existing layouts in the output directories are only replaced with --force.
+ *
+ * The batch path doesn't use IDE classes; bin/batch-generator.sh runs it with the ALM library and the plugin classes on
+ * the class path. The exit code is 0 if all layouts have been generated and 2 if any layout failed.
+ *
+ * Usage: BatchGenerator <res dir> [--screen <width>x<height>] [--target <dir>:<width>x<height>]...
+ * [--profile quick|balanced|exhaustive] [--top <n>] [--force]
+ */
+public class BatchGenerator {
+  static private class Job {
+    final File file;
+    final int[] alternatives;
+    long time;
+    String error;
+
+    Job(File file, int targets) {
+      this.file = file;
+      this.alternatives = new int[targets];
+    }
+  }
+
+  final private File resDir;
+  final private Area.Size screenSize;
+  final private List<SearchTarget> targets;
+  final private SearchProfile profile;
+  final private int top;
+  final private boolean force;
+
+  /**
+   * @param screenSize size of the screen the layouts in res/layout have been designed for
+   * @param targets the first target drives the search
+   * @param top number of alternatives that are written per layout and target
+   * @param force overwrite existing layouts in the output directories
+   */
+  public BatchGenerator(File resDir, Area.Size screenSize, List<SearchTarget> targets, SearchProfile profile, int top,
+                        boolean force) {
+    this.resDir = resDir;
+    this.screenSize = screenSize;
+    this.targets = targets;
+    this.profile = profile;
+    this.top = top;
+    this.force = force;
+  }
+
+  /**
+   * @return the number of layouts that failed
+   */
+  public int run() throws Exception {
+    File layoutDir = new File(resDir, "layout");
+    File[] files = layoutDir.listFiles(new FilenameFilter() {
+      @Override
+      public boolean accept(File dir, String name) {
+        return name.endsWith(".xml");
+      }
+    });
+    if (files == null)
+      throw new IllegalArgumentException("No layout directory: " + layoutDir);
+    Arrays.sort(files);
+
+    List<Job> jobs = new ArrayList<Job>();
+    for (File file : files)
+      jobs.add(new Job(file, targets.size()));
+
+    long startTime = System.currentTimeMillis();
+    int cores = Runtime.getRuntime().availableProcessors();
+    ExecutorService executor = Executors.newFixedThreadPool(cores);
+    List<Future<?>> futures = new ArrayList<Future<?>>();
+    try {
+      for (final Job job : jobs) {
+        futures.add(executor.submit(new Runnable() {
+          @Override
+          public void run() {
+            long jobStartTime = System.currentTimeMillis();
+            try {
+              generate(job);
+            } catch (Exception e) {
+              job.error = e.toString();
+            }
+            job.time = System.currentTimeMillis() - jobStartTime;
+          }
+        }));
+      }
+      for (Future<?> future : futures)
+        future.get();
+    } finally {
+      executor.shutdown();
+    }
+    long time = System.currentTimeMillis() - startTime;
+
+    int failed = 0;
+    for (Job job : jobs) {
+      String result;
+      if (job.error != null) {
+        result = "failed: " + job.error;
+        failed++;
+      } else {
+        result = "";
+        for (int i = 0; i < targets.size(); i++)
+          result += targets.get(i).getOutputDir() + ": " + job.alternatives[i] + "  ";
+      }
+      System.out.println(String.format("%-40s %8dms  %s", job.file.getName(), job.time, result));
+    }
+    System.out.println(String.format("%d layouts (%d failed), %d targets in %dms using %d threads (%s)", files.length,
+                                     failed, targets.size(), time, cores, profile));
+    return failed;
+  }
+
+  private void generate(Job job) throws Exception {
+    DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+    Document document = factory.newDocumentBuilder().parse(job.file);
+    IArea item = new DomLayoutParser(screenSize).parse(document.getDocumentElement());
+    if (!(item instanceof Fragment))
+      return;
+    String name = job.file.getName().substring(0, job.file.getName().length() - ".xml".length());
+    // fail before the search rather than after it
+    if (!force) {
+      for (SearchTarget target : targets) {
+        File existing = new File(new File(resDir, target.getOutputDir()), name + ".xml");
+        if (existing.exists())
+          throw new IllegalStateException(existing + " exists, use --force to overwrite it");
+      }
+    }
+
+    final SearchTarget mainTarget = targets.get(0);
+    AlternativeSearch.ISetup setup = new AlternativeSearch.ISetup() {
+      @Override
+      public SearchClassifier createClassifier() {
+        return new SearchClassifier(mainTarget.getWidth(), mainTarget.getHeight());
+      }
+
+      @Override
+      public FragmentAlternatives createFragmentAlternatives(SearchClassifier classifier) {
+        return new FragmentAlternatives(classifier, new FilteredGroupDetector());
+      }
+
+      @Override
+      public IPermutationSelector<Classification> createSelector(FragmentAlternatives fragmentAlternatives, int worker,
+                                                                 SearchStats stats) {
+        return BatchGenerator.createSelector(fragmentAlternatives, worker, stats);
+      }
+    };
+    // the layouts are already searched in parallel, one worker per search
+    AlternativeSearch search = new AlternativeSearch((Fragment)item, setup, mainTarget.getOutputDir(), 1, profile);
+    for (int i = 1; i < targets.size(); i++)
+      search.addTarget(targets.get(i));
+    final List<AlternativeInfo> mainResult = new ArrayList<AlternativeInfo>();
+    search.run(new AlternativeSearch.IProgress() {
+      @Override
+      public boolean isCanceled() {
+        return false;
+      }
+
+      @Override
+      public void setText(String text) {
+
+      }
+    }, new AlternativeSearch.IListener() {
+      @Override
+      public void onAlternativesFound(List<AlternativeInfo> alternatives) {
+
+      }
+
+      @Override
+      public void onSearchFinished(List<AlternativeInfo> alternatives, boolean canceled) {
+        mainResult.addAll(alternatives);
+      }
+    });
+
+    for (int i = 0; i < targets.size(); i++) {
+      List<AlternativeInfo> result = i == 0 ? mainResult : search.getAlternatives(targets.get(i));
+      job.alternatives[i] = write(name, targets.get(i), result);
+    }
+  }
+
+  /**
+   * @return the number of written alternatives
+   */
+  private int write(String name, SearchTarget target, List<AlternativeInfo> result) throws Exception {
+    File outputDir = new File(resDir, target.getOutputDir());
+    if (!outputDir.exists() && !outputDir.mkdirs())
+      throw new IllegalStateException("Can't create " + outputDir);
+    int count = Math.min(top, result.size());
+    for (int i = 0; i < count; i++) {
+      String outName = i == 0 ? name + ".xml" : name + "_alternative" + i + ".xml";
+      File outFile = new File(outputDir, outName);
+      if (outFile.exists() && !force)
+        throw new IllegalStateException(outFile + " exists, use --force to overwrite it");
+      DomLayoutWriter.write(LayoutFlattener.flatten(result.get(i).getFragment()).getFragment(), outFile);
+    }
+    return count;
+  }
+
+  /**
+   * Uses the trafos of both orientations since the targets may have different orientations.
+   */
+  static private IPermutationSelector<Classification> createSelector(FragmentAlternatives fragmentAlternatives, int worker,
+                                                                     SearchStats stats) {
+    SwapTrafo swapTrafo = new SwapTrafo();
+    ColumnTrafo columnTrafo = new ColumnTrafo();
+    InverseColumnTrafo inverseColumnTrafo = new InverseColumnTrafo();
+    RowFlowTrafo rowFlowTrafo = new RowFlowTrafo();
+    InverseRowFlowTrafo inverseRowFlowTrafo = new InverseRowFlowTrafo();
+    fragmentAlternatives.addTrafo(swapTrafo);
+    fragmentAlternatives.addTrafo(columnTrafo);
+    fragmentAlternatives.addTrafo(inverseColumnTrafo);
+    fragmentAlternatives.addTrafo(rowFlowTrafo);
+    fragmentAlternatives.addTrafo(inverseRowFlowTrafo);
+
+    List<ITransformation> stages = Arrays.<ITransformation>asList(swapTrafo, columnTrafo, inverseColumnTrafo, rowFlowTrafo,
+                                                                   inverseRowFlowTrafo);
+    return SelectorChains.create(fragmentAlternatives.getTrafos(), stages, worker, stats);
+  }
+
+  static private int[] parseSize(String value) {
+    String[] size = value.split("x");
+    return new int[]{Integer.parseInt(size[0]), Integer.parseInt(size[1])};
+  }
+
+  static public void main(String[] args) throws Exception {
+    if (args.length < 1) {
+      System.err.println("Usage: BatchGenerator <res dir> [--screen <width>x<height>] [--target <dir>:<width>x<height>]..."
+                         + " [--profile quick|balanced|exhaustive] [--top <n>] [--force]");
+      System.exit(1);
+    }
+    File resDir = new File(args[0]);
+    int[] screen = {1080, 1920};
+    List<SearchTarget> targets = new ArrayList<SearchTarget>();
+    SearchProfile profile = SearchProfile.BALANCED;
+    int top = 1;
+    boolean force = false;
+    for (int i = 1; i < args.length; i++) {
+      String option = args[i];
+      if (option.equals("--force")) {
+        force = true;
+        continue;
+      }
+      if (++i >= args.length)
+        throw new IllegalArgumentException("Missing value of option: " + option);
+      String value = args[i];
+      if (option.equals("--screen"))
+        screen = parseSize(value);
+      else if (option.equals("--target")) {
+        int separator = value.lastIndexOf(':');
+        int[] size = parseSize(value.substring(separator + 1));
+        targets.add(new SearchTarget(value.substring(0, separator), size[0], size[1]));
+      } else if (option.equals("--profile")) {
+        profile = SearchProfile.get(value);
+        if (profile == null)
+          throw new IllegalArgumentException("Unknown search profile: " + value);
+      } else if (option.equals("--top"))
+        top = Integer.parseInt(value);
+      else
+        throw new IllegalArgumentException("Unknown option: " + option);
+    }
+    // the output dirs of PortToLandAlternativeAction and LandToPortAlternativeAction, the actions are IDE classes
+    if (targets.isEmpty()) {
+      targets.add(new SearchTarget("layout-land", screen[1], screen[0]));
+      targets.add(new SearchTarget("layout-port", screen[0], screen[1]));
+    }
+    int failed = new BatchGenerator(resDir, new Area.Size(screen[0], screen[1]), targets, profile, top, force).run();
+    if (failed > 0)
+      System.exit(2);
+  }
+}
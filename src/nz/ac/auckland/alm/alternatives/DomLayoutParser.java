@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.ac.auckland.alm.alternatives;
+
+import nz.ac.auckland.alm.Area;
+import nz.ac.auckland.alm.IArea;
+import nz.ac.auckland.alm.algebra.Fragment;
+import nz.ac.auckland.alm.android.AbstractViewInfoParser;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+
+/**
+ * Parses a layout DOM into a fragment tree without rendering the layout.
+ *
+ * This is the headless counterpart of NlComponentParser. Without layoutlib the view sizes can't be measured, so they are
+ * read from the explicit ale:layout_* and android:min* attributes and otherwise estimated from the widget type and its text.
+ * The cookies of the areas are the DOM elements.
+ */
+public class DomLayoutParser {
+  static final private String LINEAR_LAYOUT_NAME = "LinearLayout";
+
+  final private ViewInfoParser parser;
+
+  /**
+   * @param rootSize size of the screen the layout is estimated for
+   */
+  public DomLayoutParser(Area.Size rootSize) {
+    this.parser = new ViewInfoParser(rootSize);
+  }
+
+  public IArea parse(Element element) {
+    if (element.getTagName().equals(LINEAR_LAYOUT_NAME))
+      return parseLinearLayout(element);
+    return toArea(element);
+  }
+
+  private Fragment parseLinearLayout(Element layout) {
+    Fragment fragment;
+    if ("vertical".equals(layout.getAttribute("android:orientation")))
+      fragment = Fragment.createEmptyFragment(Fragment.verticalDirection);
+    else
+      fragment = Fragment.createEmptyFragment(Fragment.horizontalDirection);
+    fragment.setCookie(layout);
+    for (Node child = layout.getFirstChild(); child != null; child = child.getNextSibling()) {
+      if (child instanceof Element)
+        fragment.add(parse((Element)child), false);
+    }
+    return fragment;
+  }
+
+  static class ViewInfoParser extends AbstractViewInfoParser<Element> {
+    // rough mdpi estimates, dp and sp are treated as px
+    static final private int CHAR_WIDTH = 8;
+    static final private int LINE_HEIGHT = 20;
+    static final private int PADDING = 12;
+    static final private int DEFAULT_SIZE = 48;
+    static final private int EDIT_TEXT_CHARS = 12;
+
+    final private Area.Size rootSize;
+
+    ViewInfoParser(Area.Size rootSize) {
+      this.rootSize = rootSize;
+    }
+
+    @Override
+    protected Area.Size getLayoutParams(Element element) {
+      return new Area.Size(parseLayoutParam(element.getAttribute("android:layout_width")),
+                           parseLayoutParam(element.getAttribute("android:layout_height")));
+    }
+
+    @Override
+    protected String getClassName(Element element) {
+      return element.getTagName();
+    }
+
+    @Override
+    protected Area.Size getRootViewSize(Element element) {
+      return rootSize;
+    }
+
+    @Override
+    protected Area.Size getMinSizeRaw(Element element) {
+      int width = parseDimension(element.getAttribute("android:minWidth"), 0);
+      int height = parseDimension(element.getAttribute("android:minHeight"), 0);
+      if (element.getTagName().endsWith("Button")) {
+        width = Math.max(width, 88);
+        height = Math.max(height, DEFAULT_SIZE);
+      }
+      return new Area.Size(width, height);
+    }
+
+    @Override
+    protected Area.Size getPreferredSizeRaw(Element element) {
+      return getMaxSizeRaw(element);
+    }
+
+    /**
+     * Estimate of the size the view measures with the root size as upper bound, like NlComponentParser.
+     */
+    @Override
+    protected Area.Size getMaxSizeRaw(Element element) {
+      Area.Size layoutParams = getLayoutParams(element);
+      Area.Size content = estimateContentSize(element);
+      return new Area.Size(measure(layoutParams.getWidth(), content.getWidth(), rootSize.getWidth()),
+                           measure(layoutParams.getHeight(), content.getHeight(), rootSize.getHeight()));
+    }
+
+    static private double measure(double layoutParam, double content, double root) {
+      if (layoutParam == MATCH_PARENT)
+        return root;
+      if (layoutParam >= 0)
+        return Math.min(layoutParam, root);
+      return Math.min(content, root);
+    }
+
+    static private Area.Size estimateContentSize(Element element) {
+      String tagName = element.getTagName();
+      String text = element.getAttribute("android:text");
+      int chars = text.length();
+      if (tagName.equals("EditText"))
+        chars = Math.max(chars, EDIT_TEXT_CHARS);
+      else if (!tagName.endsWith("TextView") && !tagName.endsWith("Button") && !tagName.equals("CheckBox")
+               && !tagName.equals("Switch"))
+        chars = 0;
+      if (chars == 0)
+        return new Area.Size(DEFAULT_SIZE, DEFAULT_SIZE);
+      return new Area.Size(2 * PADDING + chars * CHAR_WIDTH, Math.max(DEFAULT_SIZE, 2 * PADDING + LINE_HEIGHT));
+    }
+
+    static private int parseLayoutParam(String value) {
+      if (value.equals("match_parent") || value.equals("fill_parent"))
+        return MATCH_PARENT;
+      return parseDimension(value, WRAP_CONTENT);
+    }
+  }
+
+  static private int parseDimension(String value, int defaultValue) {
+    for (String unit : new String[]{"px", "dp", "dip", "sp"}) {
+      if (!value.endsWith(unit))
+        continue;
+      try {
+        return (int)Float.parseFloat(value.substring(0, value.length() - unit.length()));
+      } catch (NumberFormatException e) {
+        return defaultValue;
+      }
+    }
+    return defaultValue;
+  }
+
+  static private Area.Size readExplicitSize(Element element, String widthAttribute, String heightAttribute) {
+    Area.Size explicitSize = new Area.Size(Area.Size.UNDEFINED, Area.Size.UNDEFINED);
+    if (element.hasAttribute(widthAttribute))
+      explicitSize.setWidth(parseDimension(element.getAttribute(widthAttribute), Area.Size.UNDEFINED));
+    if (element.hasAttribute(heightAttribute))
+      explicitSize.setHeight(parseDimension(element.getAttribute(heightAttribute), Area.Size.UNDEFINED));
+    return explicitSize;
+  }
+
+  private Area toArea(Element element) {
+    Area area = new Area();
+    area.setCookie(element);
+    area.setMinSize(parser.getMinSize(element, readExplicitSize(element, "ale:layout_minWidth", "ale:layout_minHeight")));
+    area.setPreferredSize(parser.getPreferredSize(element, readExplicitSize(element, "ale:layout_prefWidth",
+                                                                            "ale:layout_prefHeight")));
+    area.setMaxSize(parser.getMaxSize(element));
+    return area;
+  }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.ac.auckland.alm.alternatives;
+
+import nz.ac.auckland.alm.IArea;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.io.File;
+
+
+/**
+ * Writes a fragment tree parsed by DomLayoutParser as a LinearLayout file.
+ *
+ * This is the headless counterpart of PsiLayoutWriter, the layout_width, layout_height and layout_weight attributes are
+ * computed by LayoutSizing as well.
+ */
+public class DomLayoutWriter {
+  static public void write(IArea area, File outFile) throws ParserConfigurationException, TransformerException {
+    Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+    document.appendChild(toElement(LayoutSizing.compute(area), document, true));
+
+    Transformer transformer = TransformerFactory.newInstance().newTransformer();
+    transformer.setOutputProperty(OutputKeys.INDENT, "yes");
+    transformer.setOutputProperty(OutputKeys.ENCODING, "utf-8");
+    transformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "4");
+    transformer.transform(new DOMSource(document), new StreamResult(outFile));
+  }
+
+  static private Element toElement(LayoutSizing.Node node, Document document, boolean rootElement) {
+    if (!node.isGroup())
+      return setWeight((Element)document.importNode(getElement(node.getArea()), true), node);
+
+    Element groupElement;
+    if (getElement(node.getArea()) != null)
+      groupElement = copyShallow(getElement(node.getArea()), document);
+    else {
+      groupElement = document.createElement("LinearLayout");
+      if (rootElement)
+        groupElement.setAttribute("xmlns:android", "http://schemas.android.com/apk/res/android");
+    }
+    groupElement.setAttribute(LayoutSizing.LAYOUT_WIDTH, node.getWidth());
+    groupElement.setAttribute(LayoutSizing.LAYOUT_HEIGHT, node.getHeight());
+    groupElement.setAttribute("android:orientation", node.isHorizontal() ? "horizontal" : "vertical");
+    for (LayoutSizing.Node child : node.getChildren())
+      groupElement.appendChild(toElement(child, document, false));
+    return setWeight(groupElement, node);
+  }
+
+  static private Element setWeight(Element element, LayoutSizing.Node node) {
+    if (node.isWeighted())
+      element.setAttribute(LayoutSizing.LAYOUT_WEIGHT, "1");
+    return element;
+  }
+
+  static private Element getElement(IArea area) {
+    return (Element)area.getCookie();
+  }
+
+  static private Element copyShallow(Element element, Document document) {
+    Element copy = document.createElement(element.getTagName());
+    NamedNodeMap attributes = element.getAttributes();
+    for (int i = 0; i < attributes.getLength(); i++) {
+      Node attribute = attributes.item(i);
+      copy.setAttribute(attribute.getNodeName(), attribute.getNodeValue());
+    }
+    return copy;
+  }
+}
@@ -15,53 +15,67 @@
  */
 package nz.ac.auckland.alm.alternatives;
 
-import com.android.tools.idea.uibuilder.model.NlComponent;
 import nz.ac.auckland.alm.IArea;
 import nz.ac.auckland.alm.algebra.Fragment;
 import nz.ac.auckland.alm.algebra.trafo.GroupDetector;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.List;
+import java.util.*;
 
 
 public class FilteredGroupDetector extends GroupDetector {
-  public FilteredGroupDetector(Comparator<IArea> comparator) {
-    super(comparator);
+  final private AreaSignatures signatures;
+  // label text classification of the fragments seen in the current detection
+  final private Map<Fragment, Float> classifications = new IdentityHashMap<Fragment, Float>();
+
+  public FilteredGroupDetector() {
+    this(new AreaSignatures());
+  }
+
+  private FilteredGroupDetector(AreaSignatures signatures) {
+    super(signatures.getComparator());
+    this.signatures = signatures;
   }
 
   private boolean isLabelText(Fragment fragment) {
     if (fragment.size() != 2)
       return false;
 
-    NlComponent component0 = (NlComponent)fragment.getItemAt(0).getCookie();
-    NlComponent component1 = (NlComponent)fragment.getItemAt(1).getCookie();
-    if (component0 == null || component1 == null)
+    String tagName0 = LayoutCookies.getTagName(fragment.getItemAt(0).getCookie());
+    String tagName1 = LayoutCookies.getTagName(fragment.getItemAt(1).getCookie());
+    if (tagName0 == null || tagName1 == null)
       return false;
 
-    if (!component0.getTagName().equals("TextView"))
+    if (!tagName0.equals("TextView"))
       return false;
-    if (!component1.getTagName().equals("EditText"))
+    if (!tagName1.equals("EditText"))
       return false;
 
     return true;
   }
   private Float classifiy(Fragment fragment) {
-    if (isLabelText(fragment))
-      return 1f;
+    Float cached = classifications.get(fragment);
+    if (cached != null)
+      return cached;
 
-    Float value = new Float(0);
-    for (IArea area : (Iterable<IArea>)fragment.getItems()) {
-      if (area instanceof Fragment)
-        value += classifiy((Fragment)area);
+    float value = 0;
+    if (isLabelText(fragment))
+      value = 1f;
+    else {
+      for (IArea area : (Iterable<IArea>)fragment.getItems()) {
+        if (area instanceof Fragment)
+          value += classifiy((Fragment)area);
+      }
     }
 
+    classifications.put(fragment, value);
     return value;
   }
 
   @Override
   public List<Fragment> detect(Fragment fragment) {
+    // the signatures are kept for the whole search, only the label text classification is per detection
+    signatures.trim();
+    classifications.clear();
     List<Fragment> groups = super.detect(fragment);
     if (groups.size() <= 1) {
       groups.add(fragment);
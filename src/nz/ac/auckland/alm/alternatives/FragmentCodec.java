@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.ac.auckland.alm.alternatives;
+
+import nz.ac.auckland.alm.IArea;
+import nz.ac.auckland.alm.algebra.Fragment;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Compact binary form of the structure of a fragment tree.
+ *
+ * Only the tree shape is stored. Leafs are stored as their index in the pre-order leaf list of the original layout, i.e. a
+ * decoded fragment uses the areas of the original layout. Fragments that have the cookie of a fragment of the original
+ * layout get that cookie back.
+ */
+public class FragmentCodec {
+  static final private int LEAF = 0;
+  static final private int HORIZONTAL = 1;
+  static final private int VERTICAL = 2;
+
+  final private List<IArea> leafs = new ArrayList<IArea>();
+  final private Map<IArea, Integer> leafIndices = new IdentityHashMap<IArea, Integer>();
+  final private List<Object> groupCookies = new ArrayList<Object>();
+  final private Map<Object, Integer> groupIndices = new IdentityHashMap<Object, Integer>();
+
+  /**
+   * @param original the layout the alternatives are derived from
+   */
+  public FragmentCodec(Fragment original) {
+    collectLeafs(original);
+  }
+
+  private void collectLeafs(IArea area) {
+    if (area instanceof Fragment) {
+      Object cookie = area.getCookie();
+      if (cookie != null && !groupIndices.containsKey(cookie)) {
+        groupIndices.put(cookie, groupCookies.size());
+        groupCookies.add(cookie);
+      }
+      for (IArea item : (Iterable<IArea>)((Fragment)area).getItems())
+        collectLeafs(item);
+      return;
+    }
+    leafIndices.put(area, leafs.size());
+    leafs.add(area);
+  }
+
+  public List<IArea> getLeafs() {
+    return leafs;
+  }
+
+  public void write(Fragment fragment, DataOutput output) throws IOException {
+    writeArea(fragment, output);
+  }
+
+  public Fragment read(DataInput input) throws IOException {
+    IArea area = readArea(input);
+    if (!(area instanceof Fragment))
+      throw new IOException("Fragment expected");
+    return (Fragment)area;
+  }
+
+  private void writeArea(IArea area, DataOutput output) throws IOException {
+    if (!(area instanceof Fragment)) {
+      Integer index = leafIndices.get(area);
+      if (index == null)
+        throw new IOException("Area is not part of the original layout");
+      output.writeByte(LEAF);
+      writeVarInt(index, output);
+      return;
+    }
+    Fragment fragment = (Fragment)area;
+    output.writeByte(fragment.isHorizontalDirection() ? HORIZONTAL : VERTICAL);
+    Integer groupIndex = fragment.getCookie() != null ? groupIndices.get(fragment.getCookie()) : null;
+    writeVarInt(groupIndex != null ? groupIndex + 1 : 0, output);
+    writeVarInt(fragment.size(), output);
+    for (IArea item : (Iterable<IArea>)fragment.getItems())
+      writeArea(item, output);
+  }
+
+  private IArea readArea(DataInput input) throws IOException {
+    int type = input.readByte();
+    if (type == LEAF) {
+      int index = readVarInt(input);
+      if (index < 0 || index >= leafs.size())
+        throw new IOException("Invalid leaf index: " + index);
+      return leafs.get(index);
+    }
+    Fragment fragment;
+    if (type == HORIZONTAL)
+      fragment = Fragment.createEmptyFragment(Fragment.horizontalDirection);
+    else if (type == VERTICAL)
+      fragment = Fragment.createEmptyFragment(Fragment.verticalDirection);
+    else
+      throw new IOException("Invalid area type: " + type);
+    int groupIndex = readVarInt(input) - 1;
+    if (groupIndex >= groupCookies.size())
+      throw new IOException("Invalid group index: " + groupIndex);
+    if (groupIndex >= 0)
+      fragment.setCookie(groupCookies.get(groupIndex));
+    int size = readVarInt(input);
+    for (int i = 0; i < size; i++)
+      fragment.add(readArea(input), false);
+    return fragment;
+  }
+
+  static public void writeVarInt(int value, DataOutput output) throws IOException {
+    while ((value & ~0x7F) != 0) {
+      output.writeByte((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    output.writeByte(value);
+  }
+
+  static public int readVarInt(DataInput input) throws IOException {
+    int value = 0;
+    for (int shift = 0; shift < 32; shift += 7) {
+      int b = input.readByte();
+      value |= (b & 0x7F) << shift;
+      if ((b & 0x80) == 0)
+        return value;
+    }
+    throw new IOException("Malformed var int");
+  }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.ac.auckland.alm.alternatives;
+
+import nz.ac.auckland.alm.Area;
+import nz.ac.auckland.alm.IArea;
+import nz.ac.auckland.alm.algebra.Fragment;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+
+/**
+ * Deep copies fragment trees.
+ *
+ * Areas are bound to a layout spec while a fragment is classified, so a fragment must not be shared between threads. Cookies
+ * are shared between the original and the copy.
+ */
+public class FragmentCopier {
+  /**
+   * Copies the fragment tree.
+   *
+   * @param area the tree to copy
+   * @param leafMap maps the leaf areas of the tree to their copy. Leafs already in the map are reused, new copies are added to
+   *                the map.
+   * @return the copy
+   */
+  static public IArea copy(IArea area, Map<IArea, IArea> leafMap) {
+    if (area instanceof Fragment)
+      return copyFragment((Fragment)area, leafMap);
+
+    IArea copy = leafMap.get(area);
+    if (copy != null)
+      return copy;
+    copy = copyArea((Area)area);
+    leafMap.put(area, copy);
+    return copy;
+  }
+
+  static public Fragment copy(Fragment fragment, Map<IArea, IArea> leafMap) {
+    return copyFragment(fragment, leafMap);
+  }
+
+  static public Map<IArea, IArea> invert(Map<IArea, IArea> leafMap) {
+    Map<IArea, IArea> inverse = new IdentityHashMap<IArea, IArea>();
+    for (Map.Entry<IArea, IArea> entry : leafMap.entrySet())
+      inverse.put(entry.getValue(), entry.getKey());
+    return inverse;
+  }
+
+  static private Fragment copyFragment(Fragment fragment, Map<IArea, IArea> leafMap) {
+    Fragment copy;
+    if (fragment.isHorizontalDirection())
+      copy = Fragment.createEmptyFragment(Fragment.horizontalDirection);
+    else
+      copy = Fragment.createEmptyFragment(Fragment.verticalDirection);
+    copy.setCookie(fragment.getCookie());
+    for (IArea item : (Iterable<IArea>)fragment.getItems())
+      copy.add(copy(item, leafMap), false);
+    return copy;
+  }
+
+  static private Area.Size copySize(Area.Size size) {
+    return new Area.Size(size.getWidth(), size.getHeight());
+  }
+
+  static private Area copyArea(Area area) {
+    Area copy = new Area();
+    copy.setId(area.getId());
+    copy.setCookie(area.getCookie());
+    copy.setMinSize(copySize(area.getMinSize()));
+    copy.setPreferredSize(copySize(area.getPreferredSize()));
+    copy.setMaxSize(copySize(area.getMaxSize()));
+    return copy;
+  }
+}
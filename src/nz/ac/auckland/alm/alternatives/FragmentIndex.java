@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.ac.auckland.alm.alternatives;
+
+import nz.ac.auckland.alm.IArea;
+import nz.ac.auckland.alm.algebra.Fragment;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+
+/**
+ * Maps fragments to values, fragments that are equivalent share the same entry.
+ *
+ * Lookups are done by a structural hash of the fragment; Fragment.isEquivalent is only called to confirm a hash match.
+ *
+ * An index with a capacity drops the least recently used entries when it grows beyond the capacity.
+ */
+public class FragmentIndex<Value> {
+  static private class Entry<Value> {
+    final Fragment fragment;
+    final Value value;
+
+    Entry(Fragment fragment, Value value) {
+      this.fragment = fragment;
+      this.value = value;
+    }
+  }
+
+  static final long HORIZONTAL_SEED = 0x68L;
+  static final long VERTICAL_SEED = 0x76L;
+
+  // max number of entries or 0 for no limit
+  final private int capacity;
+  final private LinkedHashMap<Long, List<Entry<Value>>> entries;
+  private int size = 0;
+
+  public FragmentIndex() {
+    this(0);
+  }
+
+  public FragmentIndex(int capacity) {
+    this.capacity = capacity;
+    // access order, so that the least recently used entries come first
+    this.entries = new LinkedHashMap<Long, List<Entry<Value>>>(16, 0.75f, capacity > 0);
+  }
+
+  /**
+   * Hash of the fragment structure. Equivalent fragments have the same hash.
+   *
+   * Nested fragments with the same direction as their parent are hashed as if they were flattened into the parent and
+   * fragments with a single item are hashed like the item. Leafs are identified by their cookie. SubtreeMemo computes the
+   * same hash incrementally.
+   */
+  static public long hash(IArea area) {
+    if (!(area instanceof Fragment))
+      return hashLeaf(area);
+    Fragment fragment = (Fragment)area;
+    if (fragment.size() == 1)
+      return hash(fragment.getItemAt(0));
+    long hash = fragment.isHorizontalDirection() ? HORIZONTAL_SEED : VERTICAL_SEED;
+    return mix(hashItems(fragment, fragment.isHorizontalDirection(), hash));
+  }
+
+  static private long hashItems(Fragment fragment, boolean horizontal, long hash) {
+    for (IArea item : (Iterable<IArea>)fragment.getItems()) {
+      if (item instanceof Fragment && ((Fragment)item).size() > 1 && ((Fragment)item).isHorizontalDirection() == horizontal)
+        hash = hashItems((Fragment)item, horizontal, hash);
+      else
+        hash = 31 * hash + hash(item);
+    }
+    return hash;
+  }
+
+  static long hashLeaf(IArea area) {
+    if (area.getCookie() != null)
+      return mix(System.identityHashCode(area.getCookie()));
+    if (area.getId() != null)
+      return mix(area.getId().hashCode());
+    return 0;
+  }
+
+  /**
+   * 64 bit finalizer from MurmurHash3.
+   */
+  static public long mix(long hash) {
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53L;
+    hash ^= hash >>> 33;
+    return hash;
+  }
+
+  /**
+   * @return the value of an equivalent fragment or null
+   */
+  public Value get(Fragment fragment) {
+    return get(fragment, hash(fragment));
+  }
+
+  public Value get(Fragment fragment, long hash) {
+    List<Entry<Value>> bucket = entries.get(hash);
+    if (bucket == null)
+      return null;
+    for (Entry<Value> entry : bucket) {
+      if (entry.fragment.isEquivalent(fragment))
+        return entry.value;
+    }
+    return null;
+  }
+
+  /**
+   * Adds the fragment if there is no equivalent fragment in the index yet.
+   *
+   * @return true if the fragment has been added
+   */
+  public boolean put(Fragment fragment, Value value) {
+    return put(fragment, hash(fragment), value);
+  }
+
+  public boolean put(Fragment fragment, long hash, Value value) {
+    List<Entry<Value>> bucket = entries.get(hash);
+    if (bucket == null) {
+      bucket = new ArrayList<Entry<Value>>(1);
+      entries.put(hash, bucket);
+    } else {
+      for (Entry<Value> entry : bucket) {
+        if (entry.fragment.isEquivalent(fragment))
+          return false;
+      }
+    }
+    bucket.add(new Entry<Value>(fragment, value));
+    size++;
+    if (capacity > 0 && size > capacity)
+      evict();
+    return true;
+  }
+
+  private void evict() {
+    Iterator<List<Entry<Value>>> it = entries.values().iterator();
+    while (size > capacity && it.hasNext()) {
+      size -= it.next().size();
+      it.remove();
+    }
+  }
+
+  /**
+   * Removes the entry of an equivalent fragment.
+   *
+   * @return the removed value or null
+   */
+  public Value remove(Fragment fragment) {
+    return remove(fragment, hash(fragment));
+  }
+
+  public Value remove(Fragment fragment, long hash) {
+    List<Entry<Value>> bucket = entries.get(hash);
+    if (bucket == null)
+      return null;
+    for (int i = 0; i < bucket.size(); i++) {
+      Entry<Value> entry = bucket.get(i);
+      if (!entry.fragment.isEquivalent(fragment))
+        continue;
+      bucket.remove(i);
+      if (bucket.isEmpty())
+        entries.remove(hash);
+      size--;
+      return entry.value;
+    }
+    return null;
+  }
+
+  public int size() {
+    return size;
+  }
+}
@@ -0,0 +1,428 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.ac.auckland.alm.alternatives;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Disposer;
+import com.intellij.openapi.util.Key;
+import com.intellij.openapi.vfs.*;
+import nz.ac.auckland.alm.Area;
+import nz.ac.auckland.alm.IArea;
+import nz.ac.auckland.alm.algebra.Fragment;
+import nz.ac.auckland.alm.algebra.trafo.Classification;
+import nz.ac.auckland.alm.algebra.trafo.TrafoHistory;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+
+
+/**
+ * Re-uses the alternatives of the previous search of a layout after the layout has been edited.
+ *
+ * The new layout is diffed against the previous one. The leafs of a fragment are matched by their id or, if they don't
+ * have an id, by their tag name; child fragments are matched in order. Subtrees whose structure changed (different
+ * direction, a different number of items or items that can't be matched) or that contain a leaf whose size changed are
+ * searched on their own and their alternatives are spliced into the previous alternatives. Previous alternatives that
+ * don't contain a changed subtree intact are dropped.
+ *
+ * If the root itself changed or there is no previous search the layout needs a full search. The previous searches are only
+ * kept for the most recently searched layouts of a project, see StateCache.
+ */
+public class IncrementalSearch {
+  static final private Key<StateCache> STATE_KEY = Key.create("nz.ac.auckland.alm.alternatives.IncrementalSearch");
+  // max number of alternatives of a changed subtree that are spliced into a previous alternative
+  static final private int MAX_SUB_ALTERNATIVES = 5;
+  // max number of layout files whose previous searches are kept
+  static final private int MAX_FILES = 16;
+  static final private String ID_ATTRIBUTE = "android:id";
+
+  static private class State {
+    final Fragment original;
+    final List<Fragment> alternatives;
+
+    State(Fragment original, List<Fragment> alternatives) {
+      this.original = original;
+      this.alternatives = alternatives;
+    }
+  }
+
+  /**
+   * The previous searches of the layouts of a project by layout file. Only the most recently searched files are kept. The
+   * searches of a file are dropped when the file is deleted, moved or renamed or when it has been changed outside of the
+   * IDE, and all searches are dropped when the project is disposed.
+   */
+  static private class StateCache extends VirtualFileAdapter {
+    final private Map<VirtualFile, Map<String, State>> states
+      = new LinkedHashMap<VirtualFile, Map<String, State>>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<VirtualFile, Map<String, State>> eldest) {
+        return size() > MAX_FILES;
+      }
+    };
+
+    synchronized State get(VirtualFile file, String stateKey) {
+      Map<String, State> fileStates = states.get(file);
+      if (fileStates == null)
+        return null;
+      return fileStates.get(stateKey);
+    }
+
+    synchronized void put(VirtualFile file, String stateKey, State state) {
+      Map<String, State> fileStates = states.get(file);
+      if (fileStates == null) {
+        fileStates = new HashMap<String, State>();
+        states.put(file, fileStates);
+      }
+      fileStates.put(stateKey, state);
+    }
+
+    /**
+     * Drops the searches of the file or of all files in the directory.
+     */
+    synchronized void remove(VirtualFile fileOrDirectory) {
+      for (Iterator<VirtualFile> it = states.keySet().iterator(); it.hasNext(); ) {
+        if (VfsUtilCore.isAncestor(fileOrDirectory, it.next(), false))
+          it.remove();
+      }
+    }
+
+    @Override
+    public void fileDeleted(@NotNull VirtualFileEvent event) {
+      remove(event.getFile());
+    }
+
+    @Override
+    public void fileMoved(@NotNull VirtualFileMoveEvent event) {
+      remove(event.getFile());
+    }
+
+    @Override
+    public void propertyChanged(@NotNull VirtualFilePropertyEvent event) {
+      if (VirtualFile.PROP_NAME.equals(event.getPropertyName()))
+        remove(event.getFile());
+    }
+
+    @Override
+    public void contentsChanged(@NotNull VirtualFileEvent event) {
+      if (event.isFromRefresh())
+        remove(event.getFile());
+    }
+  }
+
+  /**
+   * A subtree whose structure changed.
+   */
+  static private class ChangedSubtree {
+    final Fragment previous;
+    final long previousHash;
+    final Fragment current;
+    final List<Fragment> alternatives = new ArrayList<Fragment>();
+
+    ChangedSubtree(Fragment previous, Fragment current) {
+      this.previous = previous;
+      this.previousHash = FragmentIndex.hash(previous);
+      this.current = current;
+    }
+  }
+
+  final private Fragment current;
+  final private AlternativeSearch.ISetup setup;
+  final private SearchClassifier classifier;
+  final private String outputDir;
+  final private int maxResults;
+
+  // previous leafs and group cookies to the current ones
+  final private Map<IArea, IArea> leafMap = new IdentityHashMap<IArea, IArea>();
+  final private Map<Object, Object> groupCookieMap = new IdentityHashMap<Object, Object>();
+  final private List<ChangedSubtree> changedSubtrees = new ArrayList<ChangedSubtree>();
+  // leafs that are part of a changed subtree
+  final private Set<IArea> changedLeafs = Collections.newSetFromMap(new IdentityHashMap<IArea, Boolean>());
+  // maps the leafs of the current layout to themselves, used to copy the alternatives of changed subtrees
+  final private Map<IArea, IArea> currentLeafs = new IdentityHashMap<IArea, IArea>();
+  // hashes of the subtrees of the previous alternatives, so that splice() hashes each subtree once
+  final private SubtreeMemo memo = new SubtreeMemo();
+  private AlternativeSearch subSearch;
+  private volatile boolean canceled = false;
+
+  public IncrementalSearch(Fragment current, AlternativeSearch.ISetup setup, SearchClassifier classifier, String outputDir,
+                           int maxResults) {
+    this.current = current;
+    this.setup = setup;
+    this.classifier = classifier;
+    this.outputDir = outputDir;
+    this.maxResults = maxResults;
+
+    Set<IArea> leafs = Collections.newSetFromMap(new IdentityHashMap<IArea, Boolean>());
+    collectLeafs(current, leafs);
+    for (IArea leaf : leafs)
+      currentLeafs.put(leaf, leaf);
+  }
+
+  public void cancel() {
+    synchronized (this) {
+      canceled = true;
+      if (subSearch != null)
+        subSearch.cancel();
+    }
+  }
+
+  /**
+   * Remembers the result of a search so that the next search of the layout can be incremental.
+   *
+   * @param stateKey identifies the search configuration
+   */
+  static public void remember(Project project, VirtualFile file, String stateKey, Fragment original,
+                              List<AlternativeInfo> alternatives) {
+    List<Fragment> fragments = new ArrayList<Fragment>();
+    for (AlternativeInfo alternative : alternatives)
+      fragments.add(alternative.getFragment());
+    getStateCache(project).put(file, stateKey, new State(original, fragments));
+  }
+
+  static private StateCache getStateCache(final Project project) {
+    synchronized (STATE_KEY) {
+      StateCache cache = project.getUserData(STATE_KEY);
+      if (cache == null) {
+        cache = new StateCache();
+        project.putUserData(STATE_KEY, cache);
+        VirtualFileManager.getInstance().addVirtualFileListener(cache, project);
+        Disposer.register(project, new Disposable() {
+          @Override
+          public void dispose() {
+            project.putUserData(STATE_KEY, null);
+          }
+        });
+      }
+      return cache;
+    }
+  }
+
+  /**
+   * @return the alternatives of the current layout or null if a full search is needed
+   */
+  public List<AlternativeInfo> run(Project project, VirtualFile file, String stateKey,
+                                   AlternativeSearch.IProgress progress) {
+    State state = getStateCache(project).get(file, stateKey);
+    if (state == null)
+      return null;
+    match(state.original, current);
+    // the whole layout changed
+    for (ChangedSubtree changed : changedSubtrees) {
+      if (changed.previous == state.original)
+        return null;
+    }
+
+    for (ChangedSubtree changed : changedSubtrees) {
+      if (!searchSubtree(changed, progress))
+        return null;
+    }
+
+    TopAlternatives alternatives = new TopAlternatives(maxResults);
+    int variants = 1;
+    for (ChangedSubtree changed : changedSubtrees)
+      variants = Math.max(variants, Math.min(changed.alternatives.size(), MAX_SUB_ALTERNATIVES));
+    for (Fragment previous : state.alternatives) {
+      for (int variant = 0; variant < variants; variant++) {
+        if (canceled || progress.isCanceled())
+          return null;
+        IArea alternative = splice(previous, variant);
+        if (!(alternative instanceof Fragment))
+          continue;
+        Fragment fragment = (Fragment)alternative;
+        Classification classification = classifier.classify(fragment, new TrafoHistory());
+        alternatives.offer(new AlternativeInfo(fragment, classification, classifier.objectiveValue(classification),
+                                               outputDir));
+      }
+    }
+    if (alternatives.size() == 0)
+      return null;
+    return alternatives.toList();
+  }
+
+  /**
+   * Matches the previous layout against the current layout, see matchItems().
+   */
+  private void match(Fragment previous, Fragment current) {
+    if (previous.isHorizontalDirection() != current.isHorizontalDirection() || previous.size() != current.size()) {
+      addChangedSubtree(previous, current);
+      return;
+    }
+    IArea[] matches = matchItems(previous, current);
+    if (matches == null) {
+      addChangedSubtree(previous, current);
+      return;
+    }
+    // a leaf with a different size may change the best arrangement of its fragment
+    for (int i = 0; i < matches.length; i++) {
+      IArea previousItem = previous.getItemAt(i);
+      if (!(previousItem instanceof Fragment) && !isSameSize((Area)previousItem, (Area)matches[i])) {
+        addChangedSubtree(previous, current);
+        return;
+      }
+    }
+
+    if (previous.getCookie() != null)
+      groupCookieMap.put(previous.getCookie(), current.getCookie());
+    for (int i = 0; i < matches.length; i++) {
+      IArea previousItem = previous.getItemAt(i);
+      if (previousItem instanceof Fragment)
+        match((Fragment)previousItem, (Fragment)matches[i]);
+      else
+        leafMap.put(previousItem, matches[i]);
+    }
+  }
+
+  /**
+   * Leafs are matched by their id or, if they don't have an id, by their tag name. Leafs with the same key are matched in
+   * order. Child fragments are matched in order.
+   *
+   * @return the matching current item for each previous item or null if not all items can be matched
+   */
+  static private IArea[] matchItems(Fragment previous, Fragment current) {
+    Map<String, List<IArea>> currentLeafs = new HashMap<String, List<IArea>>();
+    List<IArea> currentGroups = new ArrayList<IArea>();
+    for (IArea item : (Iterable<IArea>)current.getItems()) {
+      if (item instanceof Fragment) {
+        currentGroups.add(item);
+        continue;
+      }
+      String key = getLeafKey(item);
+      List<IArea> leafs = currentLeafs.get(key);
+      if (leafs == null) {
+        leafs = new LinkedList<IArea>();
+        currentLeafs.put(key, leafs);
+      }
+      leafs.add(item);
+    }
+
+    IArea[] matches = new IArea[previous.size()];
+    int group = 0;
+    for (int i = 0; i < matches.length; i++) {
+      IArea item = previous.getItemAt(i);
+      if (item instanceof Fragment) {
+        if (group >= currentGroups.size())
+          return null;
+        matches[i] = currentGroups.get(group++);
+        continue;
+      }
+      List<IArea> leafs = currentLeafs.get(getLeafKey(item));
+      if (leafs == null || leafs.isEmpty())
+        return null;
+      matches[i] = leafs.remove(0);
+    }
+    return matches;
+  }
+
+  static private String getLeafKey(IArea leaf) {
+    String id = LayoutCookies.getAttribute(leaf.getCookie(), ID_ATTRIBUTE);
+    if (id != null)
+      return "id:" + id;
+    return "tag:" + AreaSignatures.areaId(leaf);
+  }
+
+  static private boolean isSameSize(Area previous, Area current) {
+    return isSameSize(previous.getMinSize(), current.getMinSize())
+           && isSameSize(previous.getPreferredSize(), current.getPreferredSize())
+           && isSameSize(previous.getMaxSize(), current.getMaxSize());
+  }
+
+  static private boolean isSameSize(Area.Size previous, Area.Size current) {
+    return previous.getWidth() == current.getWidth() && previous.getHeight() == current.getHeight();
+  }
+
+  private void addChangedSubtree(Fragment previous, Fragment current) {
+    changedSubtrees.add(new ChangedSubtree(previous, current));
+    collectLeafs(previous, changedLeafs);
+  }
+
+  static private void collectLeafs(IArea area, Set<IArea> leafs) {
+    if (area instanceof Fragment) {
+      for (IArea item : (Iterable<IArea>)((Fragment)area).getItems())
+        collectLeafs(item, leafs);
+      return;
+    }
+    leafs.add(area);
+  }
+
+  private boolean searchSubtree(final ChangedSubtree changed, AlternativeSearch.IProgress progress) {
+    progress.setText("Searching changed part of the layout");
+    AlternativeSearch search = new AlternativeSearch(changed.current, setup, outputDir,
+                                                     Runtime.getRuntime().availableProcessors(), SearchProfile.QUICK);
+    synchronized (this) {
+      if (canceled)
+        return false;
+      subSearch = search;
+    }
+    final boolean[] stopped = {false};
+    search.run(progress, new AlternativeSearch.IListener() {
+      @Override
+      public void onAlternativesFound(List<AlternativeInfo> alternatives) {
+
+      }
+
+      @Override
+      public void onSearchFinished(List<AlternativeInfo> alternatives, boolean searchCanceled) {
+        stopped[0] = searchCanceled;
+        for (AlternativeInfo alternative : alternatives)
+          changed.alternatives.add(alternative.getFragment());
+      }
+    });
+    if (stopped[0])
+      return false;
+    if (changed.alternatives.isEmpty())
+      changed.alternatives.add(changed.current);
+    return true;
+  }
+
+  /**
+   * Maps a previous alternative to the current layout.
+   *
+   * @param variant which alternative of the changed subtrees to use
+   * @return the alternative or null if the alternative doesn't contain the changed subtrees intact
+   */
+  private IArea splice(IArea previous, int variant) {
+    if (!(previous instanceof Fragment)) {
+      if (changedLeafs.contains(previous))
+        return null;
+      return leafMap.get(previous);
+    }
+    Fragment fragment = (Fragment)previous;
+    long hash = memo.hash(fragment);
+    for (ChangedSubtree changed : changedSubtrees) {
+      if (hash != changed.previousHash || !changed.previous.isEquivalent(fragment))
+        continue;
+      List<Fragment> subAlternatives = changed.alternatives;
+      // the same sub alternative is used in multiple alternatives, each needs its own copy
+      return FragmentCopier.copy(subAlternatives.get(Math.min(variant, subAlternatives.size() - 1)), currentLeafs);
+    }
+
+    Fragment copy;
+    if (fragment.isHorizontalDirection())
+      copy = Fragment.createEmptyFragment(Fragment.horizontalDirection);
+    else
+      copy = Fragment.createEmptyFragment(Fragment.verticalDirection);
+    if (fragment.getCookie() != null)
+      copy.setCookie(groupCookieMap.get(fragment.getCookie()));
+    for (IArea item : (Iterable<IArea>)fragment.getItems()) {
+      IArea itemCopy = splice(item, variant);
+      if (itemCopy == null)
+        return null;
+      copy.add(itemCopy, false);
+    }
+    return copy;
+  }
+}
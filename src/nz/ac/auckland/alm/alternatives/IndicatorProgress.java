@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.ac.auckland.alm.alternatives;
+
+import com.intellij.openapi.progress.ProgressIndicator;
+
+
+/**
+ * Reports the progress of a search to the progress indicator of an IDE task.
+ */
+public class IndicatorProgress implements AlternativeSearch.IProgress {
+  final private ProgressIndicator indicator;
+
+  public IndicatorProgress(ProgressIndicator indicator) {
+    this.indicator = indicator;
+    indicator.setIndeterminate(true);
+  }
+
+  @Override
+  public boolean isCanceled() {
+    return indicator.isCanceled();
+  }
+
+  @Override
+  public void setText(String text) {
+    indicator.setText(text);
+  }
+}
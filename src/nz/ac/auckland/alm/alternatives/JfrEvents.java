@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.ac.auckland.alm.alternatives;
+
+import jdk.jfr.*;
+
+
+/**
+ * Java Flight Recorder events of the generation stages. Only loaded by PipelineEvents if jdk.jfr is available.
+ */
+class JfrEvents {
+  @Category("Layout Alternatives")
+  @StackTrace(false)
+  static abstract class StageEvent extends Event {
+    @Label("Layout")
+    String layoutName;
+
+    @Label("Components")
+    int componentCount;
+
+    @Label("Results")
+    int resultCount;
+  }
+
+  @Name("nz.ac.auckland.alm.Render")
+  @Label("Render Layout")
+  @Description("Initial render of the layout in the design model")
+  static class RenderEvent extends StageEvent {
+  }
+
+  @Name("nz.ac.auckland.alm.Parse")
+  @Label("Parse Layout")
+  @Description("Conversion of the rendered components into a fragment tree")
+  static class ParseEvent extends StageEvent {
+  }
+
+  @Name("nz.ac.auckland.alm.Search")
+  @Label("Search Alternatives")
+  static class SearchEvent extends StageEvent {
+  }
+
+  @Name("nz.ac.auckland.alm.Write")
+  @Label("Write Alternative")
+  @Description("Writing an alternative into the output layout file")
+  static class WriteEvent extends StageEvent {
+  }
+
+  @Name("nz.ac.auckland.alm.Preview")
+  @Label("Preview Alternative")
+  static class PreviewEvent extends StageEvent {
+  }
+
+  static Object begin(PipelineEvents.Stage stage) {
+    StageEvent event;
+    switch (stage) {
+      case RENDER:
+        event = new RenderEvent();
+        break;
+      case PARSE:
+        event = new ParseEvent();
+        break;
+      case SEARCH:
+        event = new SearchEvent();
+        break;
+      case WRITE:
+        event = new WriteEvent();
+        break;
+      default:
+        event = new PreviewEvent();
+        break;
+    }
+    event.begin();
+    return event;
+  }
+
+  static void commit(Object object, String layoutName, int componentCount, int resultCount) {
+    StageEvent event = (StageEvent)object;
+    event.end();
+    if (!event.shouldCommit())
+      return;
+    event.layoutName = layoutName;
+    event.componentCount = componentCount;
+    event.resultCount = resultCount;
+    event.commit();
+  }
+}
@@ -17,12 +17,21 @@ package nz.ac.auckland.alm.alternatives;
 
 import nz.ac.auckland.alm.algebra.trafo.*;
 
+import java.util.Arrays;
 import java.util.List;
 
 
 public class LandToPortAlternativeAction extends OrientationTrafoAction {
+  static final public String OUTPUT_DIR = "layout-port";
+
   @Override
-  protected IPermutationSelector<Classification> getSelector(FragmentAlternatives fragmentAlternatives) {
+  protected IPermutationSelector<Classification> getSelector(FragmentAlternatives fragmentAlternatives, int worker,
+                                                             SearchStats stats) {
+    return createSelector(fragmentAlternatives, worker, stats);
+  }
+
+  static public IPermutationSelector<Classification> createSelector(FragmentAlternatives fragmentAlternatives, int worker,
+                                                                    SearchStats stats) {
     SwapTrafo swapTrafo = new SwapTrafo();
     InverseColumnTrafo inverseColumnTrafo = new InverseColumnTrafo();
     RowFlowTrafo rowFlowTrafo = new RowFlowTrafo();
@@ -32,19 +41,13 @@ public class LandToPortAlternativeAction extends OrientationTrafoAction {
 
     List<ITransformation> trafos = fragmentAlternatives.getTrafos();
 
-    IPermutationSelector<Classification> selector
-      = new ChainPermutationSelector<Classification>(
-      new ApplyToAllPermutationSelector<Classification>(trafos, swapTrafo),
-      new ApplyToAllPermutationSelector<Classification>(trafos, inverseColumnTrafo),
-      new ApplyToAllPermutationSelector<Classification>(trafos, rowFlowTrafo),
-      new RandomPermutationSelector<Classification>(trafos)
-    );
+    List<ITransformation> stages = Arrays.<ITransformation>asList(swapTrafo, inverseColumnTrafo, rowFlowTrafo);
 
-    return selector;
+    return SelectorChains.create(trafos, stages, worker, stats);
   }
 
   @Override
   protected String getOutputDir() {
-    return "layout-port";
+    return OUTPUT_DIR;
   }
 }
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.ac.auckland.alm.alternatives;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Access to the layout element an area has been parsed from.
+ *
+ * In the IDE the cookie of an area is a LayoutViews.View of the parsed layout, the headless batch generator uses DOM
+ * elements. Neither this class nor LayoutViews refers to IDE classes, so it can be used without an IDE; the XML tag of a
+ * view is looked up with LayoutSnapshot.getTag().
+ */
+public class LayoutCookies {
+  /**
+   * @return the tag name of the cookie, e.g. "TextView", or null if the cookie is not a layout element
+   */
+  static public String getTagName(Object cookie) {
+    if (cookie instanceof LayoutViews.View)
+      return ((LayoutViews.View)cookie).getTagName();
+    if (cookie instanceof Element)
+      return ((Element)cookie).getTagName();
+    return null;
+  }
+
+  /**
+   * Attribute access that doesn't touch PSI, i.e. that can be used during the search.
+   *
+   * @return the attribute value or null if the cookie is not a snapshot view or a DOM element or doesn't have the attribute
+   */
+  static public String getAttribute(Object cookie, String name) {
+    if (cookie instanceof LayoutViews.View)
+      return ((LayoutViews.View)cookie).getAttribute(name);
+    if (cookie instanceof Element && ((Element)cookie).hasAttribute(name))
+      return ((Element)cookie).getAttribute(name);
+    return null;
+  }
+
+  /**
+   * @return the attribute names of the cookie or null if the cookie is not a snapshot view or a DOM element
+   */
+  static public List<String> getAttributeNames(Object cookie) {
+    if (cookie instanceof LayoutViews.View)
+      return ((LayoutViews.View)cookie).getAttributeNames();
+    if (!(cookie instanceof Element))
+      return null;
+    NamedNodeMap attributes = ((Element)cookie).getAttributes();
+    List<String> names = new ArrayList<String>();
+    for (int i = 0; i < attributes.getLength(); i++)
+      names.add(attributes.item(i).getNodeName());
+    return names;
+  }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.ac.auckland.alm.alternatives;
+
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.project.Project;
+import com.intellij.psi.PsiDocumentManager;
+import com.intellij.psi.xml.XmlAttribute;
+import com.intellij.psi.xml.XmlFile;
+import com.intellij.psi.xml.XmlTag;
+
+import java.util.*;
+
+
+/**
+ * Element of a layout that is assembled in memory and then written as text.
+ *
+ * The layout writers build the output layout from these elements and write the whole document with a single document
+ * change, i.e. the output file is only parsed once instead of after each created tag. Attribute values are stored as XML
+ * attribute text, copied values are not decoded and new values must not need escaping.
+ */
+public class LayoutElement {
+  static final private String INDENT = "    ";
+
+  final private String name;
+  final private Map<String, String> attributes = new LinkedHashMap<String, String>();
+  final private List<LayoutElement> children = new ArrayList<LayoutElement>();
+  // text between the start and the end tag of a copied view, i.e. its sub tags, comments and text, null if empty
+  private String rawContent;
+
+  public LayoutElement(String name) {
+    this.name = name;
+  }
+
+  /**
+   * @param deep if the content of the tag, i.e. its sub tags, comments and text, is copied as well
+   */
+  static public LayoutElement copy(XmlTag tag, boolean deep) {
+    LayoutElement element = new LayoutElement(tag.getName());
+    for (XmlAttribute attribute : tag.getAttributes())
+      element.setAttribute(attribute.getName(), attribute.getValue());
+    if (deep) {
+      String content = tag.getValue().getText();
+      if (content.trim().length() > 0)
+        element.rawContent = content;
+    }
+    return element;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * @return the attribute value or null if the element doesn't have the attribute
+   */
+  public String getAttribute(String name) {
+    return attributes.get(name);
+  }
+
+  public void setAttribute(String name, String value) {
+    attributes.put(name, value);
+  }
+
+  public void removeAttribute(String name) {
+    attributes.remove(name);
+  }
+
+  public void addChild(LayoutElement child) {
+    children.add(child);
+  }
+
+  public List<LayoutElement> getChildren() {
+    return children;
+  }
+
+  public void write(StringBuilder out, String indent) {
+    out.append(indent).append('<').append(name);
+    String attributeIndent = indent + INDENT;
+    for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+      String value = attribute.getValue() != null ? attribute.getValue() : "";
+      char quote = value.indexOf('"') < 0 ? '"' : '\'';
+      out.append('\n').append(attributeIndent).append(attribute.getKey()).append('=').append(quote).append(value)
+        .append(quote);
+    }
+    if (children.isEmpty() && rawContent == null) {
+      out.append(" />\n");
+      return;
+    }
+    out.append(">\n");
+    if (rawContent != null)
+      writeRawContent(out, attributeIndent);
+    for (LayoutElement child : children) {
+      out.append('\n');
+      child.write(out, attributeIndent);
+    }
+    out.append(indent).append("</").append(name).append(">\n");
+  }
+
+  /**
+   * Writes the copied content with the indentation of the output, the common indentation of the source is removed.
+   */
+  private void writeRawContent(StringBuilder out, String indent) {
+    List<String> lines = new ArrayList<String>(Arrays.asList(rawContent.split("\r?\n", -1)));
+    while (!lines.isEmpty() && lines.get(0).trim().isEmpty())
+      lines.remove(0);
+    while (!lines.isEmpty() && lines.get(lines.size() - 1).trim().isEmpty())
+      lines.remove(lines.size() - 1);
+    // content that starts on the line of the start tag has no indentation in its first line
+    boolean firstLineIndented = rawContent.substring(0, getIndent(rawContent)).indexOf('\n') >= 0;
+    int commonIndent = Integer.MAX_VALUE;
+    for (int i = 0; i < lines.size(); i++) {
+      String line = lines.get(i);
+      if (line.trim().isEmpty() || (i == 0 && !firstLineIndented))
+        continue;
+      commonIndent = Math.min(commonIndent, getIndent(line));
+    }
+    for (int i = 0; i < lines.size(); i++) {
+      String line = lines.get(i);
+      if (line.trim().isEmpty())
+        out.append('\n');
+      else if (i == 0 && !firstLineIndented)
+        out.append(indent).append(line.substring(getIndent(line))).append('\n');
+      else
+        out.append(indent).append(line.substring(Math.min(commonIndent, getIndent(line)))).append('\n');
+    }
+  }
+
+  static private int getIndent(String line) {
+    int i = 0;
+    while (i < line.length() && Character.isWhitespace(line.charAt(i)))
+      i++;
+    return i;
+  }
+
+  /**
+   * Replaces the content of the file with the prolog and the root element.
+   *
+   * Must be called from within a write command.
+   */
+  static public void writeDocument(Project project, XmlFile file, String prolog, LayoutElement root) {
+    StringBuilder text = new StringBuilder(prolog);
+    if (text.length() > 0 && text.charAt(text.length() - 1) != '\n')
+      text.append('\n');
+    root.write(text, "");
+
+    PsiDocumentManager documentManager = PsiDocumentManager.getInstance(project);
+    Document document = documentManager.getDocument(file);
+    if (document == null)
+      throw new IllegalStateException("No document for " + file.getName());
+    document.setText(text);
+    documentManager.commitDocument(document);
+  }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.ac.auckland.alm.alternatives;
+
+import nz.ac.auckland.alm.IArea;
+import nz.ac.auckland.alm.algebra.Fragment;
+
+import java.util.*;
+
+
+/**
+ * Removes redundant LinearLayouts from an alternative before it is written.
+ *
+ * A group is redundant if it has been created by a trafo or if its tag has no attributes besides the layout size,
+ * weight and orientation, i.e. removing it doesn't change the look of the layout. Redundant groups with the same
+ * direction as their parent are merged into the parent and redundant single child groups are replaced by their child. A
+ * single child group can also take over the direction and the items of a redundant child group. The root group is always
+ * kept.
+ *
+ * The input fragment is not changed, the flattened fragment uses copies of the leafs. MeasureCostTerm applies the same
+ * rules without copying the fragment.
+ */
+public class LayoutFlattener {
+  static final private Set<String> SIZE_ATTRIBUTES = new HashSet<String>(Arrays.asList(
+    "android:layout_width", "android:layout_height", "android:layout_weight", "android:orientation"));
+
+  static public class Result {
+    final private Fragment fragment;
+    final private int removedGroups;
+    final private int depthBefore;
+    final private int depthAfter;
+
+    Result(Fragment fragment, int removedGroups, int depthBefore, int depthAfter) {
+      this.fragment = fragment;
+      this.removedGroups = removedGroups;
+      this.depthBefore = depthBefore;
+      this.depthAfter = depthAfter;
+    }
+
+    public Fragment getFragment() {
+      return fragment;
+    }
+
+    /**
+     * @return number of views saved
+     */
+    public int getRemovedGroups() {
+      return removedGroups;
+    }
+
+    /**
+     * @return number of nesting levels saved
+     */
+    public int getSavedDepth() {
+      return depthBefore - depthAfter;
+    }
+
+    @Override
+    public String toString() {
+      return "removed " + removedGroups + " layouts, depth " + depthBefore + " -> " + depthAfter;
+    }
+  }
+
+  final private Map<IArea, IArea> leafMap = new IdentityHashMap<IArea, IArea>();
+  private int removedGroups = 0;
+
+  private LayoutFlattener() {
+  }
+
+  static public Result flatten(Fragment fragment) {
+    LayoutFlattener flattener = new LayoutFlattener();
+    Fragment flattened = (Fragment)flattener.flatten(fragment, true);
+    return new Result(flattened, flattener.removedGroups, getDepth(fragment), getDepth(flattened));
+  }
+
+  private IArea flatten(IArea area, boolean root) {
+    if (!(area instanceof Fragment))
+      return FragmentCopier.copy(area, leafMap);
+
+    Fragment fragment = (Fragment)area;
+    boolean horizontal = fragment.isHorizontalDirection();
+    List<IArea> items = new ArrayList<IArea>();
+    for (IArea item : (Iterable<IArea>)fragment.getItems()) {
+      IArea flatItem = flatten(item, false);
+      if (flatItem instanceof Fragment && ((Fragment)flatItem).isHorizontalDirection() == horizontal
+          && isRedundant(flatItem.getCookie())) {
+        // same direction, merge into this group
+        items.addAll((List<IArea>)((Fragment)flatItem).getItems());
+        removedGroups++;
+        continue;
+      }
+      items.add(flatItem);
+    }
+
+    if (items.size() == 1) {
+      IArea child = items.get(0);
+      if (!root && isRedundant(fragment.getCookie())) {
+        removedGroups++;
+        return child;
+      }
+      if (child instanceof Fragment && isRedundant(child.getCookie())) {
+        // take over the direction and the items of the child
+        horizontal = ((Fragment)child).isHorizontalDirection();
+        items = new ArrayList<IArea>((List<IArea>)((Fragment)child).getItems());
+        removedGroups++;
+      }
+    }
+
+    Fragment flattened = Fragment.createEmptyFragment(horizontal ? Fragment.horizontalDirection
+                                                                 : Fragment.verticalDirection);
+    flattened.setCookie(fragment.getCookie());
+    for (IArea item : items)
+      flattened.add(item, false);
+    return flattened;
+  }
+
+  /**
+   * @param cookie the cookie of a group
+   */
+  static boolean isRedundant(Object cookie) {
+    if (cookie == null)
+      return true;
+    List<String> attributes = LayoutCookies.getAttributeNames(cookie);
+    if (attributes == null)
+      return false;
+    for (String attribute : attributes) {
+      if (!SIZE_ATTRIBUTES.contains(attribute))
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * @return the number of nested groups
+   */
+  static public int getDepth(IArea area) {
+    if (!(area instanceof Fragment))
+      return 0;
+    int depth = 0;
+    for (IArea item : (Iterable<IArea>)((Fragment)area).getItems())
+      depth = Math.max(depth, getDepth(item));
+    return depth + 1;
+  }
+}
@@ -21,17 +21,20 @@ import com.android.tools.idea.uibuilder.model.NlModel;
 import com.android.tools.idea.uibuilder.surface.DesignSurface;
 import com.intellij.openapi.application.Result;
 import com.intellij.openapi.command.WriteCommandAction;
+import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.project.Project;
 import com.intellij.psi.PsiDirectory;
 import com.intellij.psi.PsiFile;
-import com.intellij.psi.xml.XmlDocument;
 import com.intellij.psi.xml.XmlFile;
+import com.intellij.psi.xml.XmlProlog;
 import nz.ac.auckland.alm.algebra.Fragment;
 import org.jetbrains.android.facet.AndroidFacet;
 import org.jetbrains.annotations.NotNull;
 
 
 public class LayoutRenderer {
+    private static final Logger LOG = Logger.getInstance(LayoutRenderer.class);
+
     final Project project;
     final AndroidFacet facet;
     final XmlFile xmlFile;
@@ -58,39 +61,48 @@ public class LayoutRenderer {
         return createView(reuse, copyXmlFile, renderImmediately);
     }
 
-    public XmlFile createLandFile(final Fragment fragment, String outputDir, final boolean useALMLayout) {
-        PsiDirectory resourceDir = xmlFile.getParent().getParentDirectory();
-        PsiDirectory layoutDir = resourceDir.findSubdirectory(outputDir);
-        if (layoutDir == null)
-            layoutDir = resourceDir.createSubdirectory(outputDir);
-        String fileName = xmlFile.getName();
-        PsiFile copyLayout = layoutDir.findFile(fileName);
-        if (copyLayout == null)
-            copyLayout = layoutDir.createFile(fileName);
-
-        facet.getConfigurationManager().getConfiguration(copyLayout.getVirtualFile()).setTheme(
-          facet.getConfigurationManager().getConfiguration(xmlFile.getVirtualFile()).getTheme()
-        );
+    public XmlFile getXmlFile() {
+        return xmlFile;
+    }
 
-        final XmlFile copyXmlFile = (XmlFile)copyLayout;
-        WriteCommandAction<Void> action = new WriteCommandAction<Void>(project, copyLayout) {
-            @Override
-            protected void run(@NotNull Result<Void> result) throws Throwable {
-                // fix prolog
-                XmlDocument copyDocument = copyXmlFile.getDocument();
-                if (copyDocument.getProlog() != null)
-                    copyDocument.getProlog().delete();
-                copyDocument.add(xmlFile.getDocument().getProlog().copy());
+    public XmlFile createLandFile(final Fragment fragment, final String outputDir, final boolean useALMLayout) {
+        PipelineEvents.Span span = PipelineEvents.begin(PipelineEvents.Stage.WRITE, outputDir + "/" + xmlFile.getName())
+          .setComponentCount(PipelineEvents.countLeafs(fragment));
+        try {
+            PsiDirectory resourceDir = xmlFile.getParent().getParentDirectory();
+            PsiDirectory layoutDir = resourceDir.findSubdirectory(outputDir);
+            if (layoutDir == null)
+                layoutDir = resourceDir.createSubdirectory(outputDir);
+            String fileName = xmlFile.getName();
+            PsiFile copyLayout = layoutDir.findFile(fileName);
+            if (copyLayout == null)
+                copyLayout = layoutDir.createFile(fileName);
 
-                if (useALMLayout)
-                    ALMLayoutWriter.write(xmlFile.getRootTag(), fragment, copyXmlFile, project, facet);
-                else
-                    PsiLayoutWriter.write(fragment, copyXmlFile, project);
-            }
-        };
-        action.execute();
+            facet.getConfigurationManager().getConfiguration(copyLayout.getVirtualFile()).setTheme(
+              facet.getConfigurationManager().getConfiguration(xmlFile.getVirtualFile()).getTheme()
+            );
 
-        return copyXmlFile;
+            final XmlFile copyXmlFile = (XmlFile)copyLayout;
+            WriteCommandAction<Void> action = new WriteCommandAction<Void>(project, copyLayout) {
+                @Override
+                protected void run(@NotNull Result<Void> result) throws Throwable {
+                    // the whole file is replaced, start with the prolog of the source layout
+                    XmlProlog prolog = xmlFile.getDocument().getProlog();
+                    String prologText = prolog != null ? prolog.getText() : "";
+                    if (useALMLayout)
+                        ALMLayoutWriter.write(xmlFile.getRootTag(), fragment, copyXmlFile, prologText, project, facet);
+                    else {
+                        LayoutFlattener.Result flattened = LayoutFlattener.flatten(fragment);
+                        LOG.debug(outputDir + "/" + xmlFile.getName() + ": " + flattened);
+                        PsiLayoutWriter.write(flattened.getFragment(), copyXmlFile, prologText, project);
+                    }
+                }
+            };
+            action.execute();
+            return copyXmlFile;
+        } finally {
+            span.end();
+        }
     }
 
     public DesignSurface createView(DesignSurface reuse, XmlFile xmlFile, boolean renderImmediately) {
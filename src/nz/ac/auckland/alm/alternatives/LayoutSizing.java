@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.ac.auckland.alm.alternatives;
+
+import nz.ac.auckland.alm.IArea;
+import nz.ac.auckland.alm.algebra.Fragment;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * The layout_width, layout_height and layout_weight of a fragment that is written as nested LinearLayouts.
+ *
+ * The sizes are computed bottom-up in one pass:
+ * - a LinearLayout matches its parent in a direction if a view inside it (only nested in LinearLayouts) does
+ * - a LinearLayout without child LinearLayouts matches its parent in its layout direction
+ * - if a child matches the parent in the orthogonal direction, all child LinearLayouts do so as well
+ * - children that match the parent in the layout direction get a weight of 1
+ * - the root matches its parent in both directions
+ *
+ * The sizes of the views are read from their cookies. The layout writers share these rules, MeasureCostTerm applies
+ * them in its own walk over the unflattened fragment.
+ */
+public class LayoutSizing {
+  static final public String WRAP_CONTENT = "wrap_content";
+  static final public String MATCH_PARENT = "match_parent";
+  static final public String FILL_PARENT = "fill_parent";
+  static final public String LAYOUT_WIDTH = "android:layout_width";
+  static final public String LAYOUT_HEIGHT = "android:layout_height";
+  static final public String LAYOUT_WEIGHT = "android:layout_weight";
+
+  /**
+   * A view or LinearLayout of the written layout.
+   */
+  static public class Node {
+    final private IArea area;
+    final private List<Node> children;
+    // if a view inside the node (only nested in LinearLayouts) or the view itself matches the parent
+    final private boolean viewMatchesWidth;
+    final private boolean viewMatchesHeight;
+    private boolean matchesWidth;
+    private boolean matchesHeight;
+    private boolean weighted = false;
+
+    private Node(IArea area, List<Node> children, boolean viewMatchesWidth, boolean viewMatchesHeight) {
+      this.area = area;
+      this.children = children;
+      this.viewMatchesWidth = viewMatchesWidth;
+      this.viewMatchesHeight = viewMatchesHeight;
+      this.matchesWidth = viewMatchesWidth;
+      this.matchesHeight = viewMatchesHeight;
+    }
+
+    public IArea getArea() {
+      return area;
+    }
+
+    public boolean isGroup() {
+      return area instanceof Fragment;
+    }
+
+    /**
+     * @return true for a horizontal LinearLayout
+     */
+    public boolean isHorizontal() {
+      return isGroup() && ((Fragment)area).isHorizontalDirection();
+    }
+
+    /**
+     * @return the children of a LinearLayout, empty for views
+     */
+    public List<Node> getChildren() {
+      return children;
+    }
+
+    public boolean matchesWidth() {
+      return matchesWidth;
+    }
+
+    public boolean matchesHeight() {
+      return matchesHeight;
+    }
+
+    /**
+     * @return the layout_width of a LinearLayout
+     */
+    public String getWidth() {
+      return matchesWidth ? MATCH_PARENT : WRAP_CONTENT;
+    }
+
+    /**
+     * @return the layout_height of a LinearLayout
+     */
+    public String getHeight() {
+      return matchesHeight ? MATCH_PARENT : WRAP_CONTENT;
+    }
+
+    /**
+     * @return true if the node gets a layout_weight of 1
+     */
+    public boolean isWeighted() {
+      return weighted;
+    }
+  }
+
+  static public Node compute(IArea root) {
+    Node node = createNode(root);
+    node.matchesWidth = true;
+    node.matchesHeight = true;
+    return node;
+  }
+
+  static public boolean isMatchParent(String value) {
+    return value != null && (value.equals(MATCH_PARENT) || value.equals(FILL_PARENT));
+  }
+
+  static private Node createNode(IArea area) {
+    if (!(area instanceof Fragment)) {
+      Object cookie = area.getCookie();
+      return new Node(area, Collections.<Node>emptyList(), isMatchParent(LayoutCookies.getAttribute(cookie, LAYOUT_WIDTH)),
+                      isMatchParent(LayoutCookies.getAttribute(cookie, LAYOUT_HEIGHT)));
+    }
+
+    // children first
+    Fragment fragment = (Fragment)area;
+    boolean horizontal = fragment.isHorizontalDirection();
+    List<Node> children = new ArrayList<Node>(fragment.size());
+    boolean hasChildGroup = false;
+    boolean viewMatchesWidth = false;
+    boolean viewMatchesHeight = false;
+    for (IArea item : (Iterable<IArea>)fragment.getItems()) {
+      Node child = createNode(item);
+      children.add(child);
+      hasChildGroup |= child.isGroup();
+      viewMatchesWidth |= child.viewMatchesWidth;
+      viewMatchesHeight |= child.viewMatchesHeight;
+    }
+
+    // inherit match parent from the views, a layout without child layouts matches the parent in its direction
+    Node node = new Node(fragment, children, viewMatchesWidth, viewMatchesHeight);
+    node.matchesWidth = viewMatchesWidth || (!hasChildGroup && horizontal);
+    node.matchesHeight = viewMatchesHeight || (!hasChildGroup && !horizontal);
+
+    // match all child layouts in the orthogonal direction, this ensures all layouts have sufficient extent
+    boolean orthogonalMatch = false;
+    for (Node child : children)
+      orthogonalMatch |= horizontal ? child.matchesHeight : child.matchesWidth;
+    for (Node child : children) {
+      if (orthogonalMatch && child.isGroup()) {
+        if (horizontal)
+          child.matchesHeight = true;
+        else
+          child.matchesWidth = true;
+      }
+      // set weights for "match parent" items
+      child.weighted = horizontal ? child.matchesWidth : child.matchesHeight;
+    }
+    return node;
+  }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.ac.auckland.alm.alternatives;
+
+import com.android.ide.common.rendering.api.ResourceValue;
+import com.android.ide.common.resources.ResourceResolver;
+import com.android.tools.idea.uibuilder.model.NlComponent;
+import com.intellij.psi.xml.XmlAttribute;
+import com.intellij.psi.xml.XmlTag;
+import nz.ac.auckland.alm.IArea;
+import nz.ac.auckland.alm.algebra.Fragment;
+
+import java.util.*;
+
+
+/**
+ * Reads a parsed layout into LayoutViews.
+ *
+ * The tag names and the attributes of the views are read once while the layout is parsed. Resource references in
+ * attribute values, e.g. @dimen/margin, are resolved with the resource resolver of the configuration; a value that can't
+ * be resolved is kept as it is. The sizes of the views are held by the parsed areas. The cookies of the parsed areas are
+ * replaced by the views, so the search can run on any thread without a read lock. Only the XmlTag of a view is kept for
+ * writing the alternatives; the NlComponents of a rendered layout are not referenced, since the layout editor keeps
+ * changing them.
+ */
+public class LayoutSnapshot {
+  private LayoutSnapshot() {
+  }
+
+  /**
+   * Reads the parsed layout and replaces the cookies of the areas with the views.
+   *
+   * @param root parsed layout, the cookies must be NlComponents or XmlTags
+   * @param resolver resolves resource references in the attribute values, null to keep the values as they are
+   */
+  static public LayoutViews create(IArea root, ResourceResolver resolver) {
+    Builder builder = new Builder(resolver);
+    List<IArea> areas = new ArrayList<IArea>();
+    builder.add(root, -1, areas);
+    LayoutViews views = builder.build();
+    for (int i = 0; i < areas.size(); i++)
+      areas.get(i).setCookie(views.getView(i));
+    return views;
+  }
+
+  /**
+   * @return the XML tag of a view, NlComponent or XmlTag cookie or null for other cookies
+   */
+  static public XmlTag getTag(Object cookie) {
+    if (cookie instanceof LayoutViews.View)
+      return (XmlTag)((LayoutViews.View)cookie).getSource();
+    if (cookie instanceof NlComponent)
+      return ((NlComponent)cookie).getTag();
+    if (cookie instanceof XmlTag)
+      return (XmlTag)cookie;
+    return null;
+  }
+
+  static private class Builder {
+    final List<String> tagNames = new ArrayList<String>();
+    final List<Integer> parents = new ArrayList<Integer>();
+    final List<Integer> attributeOffsets = new ArrayList<Integer>();
+    final List<String> attributeNames = new ArrayList<String>();
+    final List<String> attributeValues = new ArrayList<String>();
+    final List<Object> tags = new ArrayList<Object>();
+    final private ResourceResolver resolver;
+
+    Builder(ResourceResolver resolver) {
+      this.resolver = resolver;
+    }
+
+    void add(IArea area, int parent, List<IArea> areas) {
+      int index = areas.size();
+      areas.add(area);
+      Object element = area.getCookie();
+      XmlTag tag = element instanceof NlComponent ? ((NlComponent)element).getTag() : (XmlTag)element;
+      tagNames.add(tag != null ? tag.getName() : "");
+      parents.add(parent);
+      attributeOffsets.add(attributeNames.size());
+      if (tag != null) {
+        for (XmlAttribute attribute : tag.getAttributes()) {
+          attributeNames.add(attribute.getName());
+          attributeValues.add(resolve(attribute.getValue()));
+        }
+      }
+      tags.add(tag);
+
+      if (area instanceof Fragment) {
+        for (IArea item : (Iterable<IArea>)((Fragment)area).getItems())
+          add(item, index, areas);
+      }
+    }
+
+    /**
+     * @return the resolved value of a resource or theme reference, otherwise the value itself; ids are kept since they
+     * identify the views
+     */
+    private String resolve(String value) {
+      if (resolver == null || value == null || !(value.startsWith("@") || value.startsWith("?")))
+        return value;
+      if (value.startsWith("@+") || value.startsWith("@id/") || value.startsWith("@android:id/"))
+        return value;
+      ResourceValue resourceValue = resolver.findResValue(value, false);
+      if (resourceValue == null)
+        return value;
+      resourceValue = resolver.resolveResValue(resourceValue);
+      if (resourceValue == null || resourceValue.getValue() == null)
+        return value;
+      return resourceValue.getValue();
+    }
+
+    LayoutViews build() {
+      attributeOffsets.add(attributeNames.size());
+      return new LayoutViews(tagNames, parents, attributeOffsets, attributeNames, attributeValues, tags);
+    }
+  }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.ac.auckland.alm.alternatives;
+
+import java.util.*;
+
+
+/**
+ * Immutable, PSI free views of a parsed layout, see LayoutSnapshot.
+ *
+ * The tag names and the attributes of the views are stored in arrays indexed by the pre-order index of the view. The
+ * class doesn't refer to IDE classes, so LayoutCookies can check for its views without the IDE on the class path. The
+ * element a view has been parsed from, e.g. an XmlTag, is only kept as an Object for writing the alternatives.
+ */
+public class LayoutViews {
+  /**
+   * Cookie of the areas and fragments of a parsed layout.
+   */
+  static public class View {
+    final private LayoutViews views;
+    final private int index;
+
+    private View(LayoutViews views, int index) {
+      this.views = views;
+      this.index = index;
+    }
+
+    public LayoutViews getViews() {
+      return views;
+    }
+
+    public int getIndex() {
+      return index;
+    }
+
+    public int getTagId() {
+      return views.tagIds[index];
+    }
+
+    public String getTagName() {
+      return views.tagNames[views.tagIds[index]];
+    }
+
+    /**
+     * @return the attribute value or null if the view doesn't have the attribute
+     */
+    public String getAttribute(String name) {
+      for (int i = views.attributeOffsets[index]; i < views.attributeOffsets[index + 1]; i++) {
+        if (views.attributeNames[i].equals(name))
+          return views.attributeValues[i];
+      }
+      return null;
+    }
+
+    public List<String> getAttributeNames() {
+      return Arrays.asList(views.attributeNames).subList(views.attributeOffsets[index], views.attributeOffsets[index + 1]);
+    }
+
+    /**
+     * @return the index of the parent view or -1 for the root
+     */
+    public int getParent() {
+      return views.parents[index];
+    }
+
+    /**
+     * @return the element the view has been parsed from, only to be used for writing
+     */
+    public Object getSource() {
+      return views.sources[index];
+    }
+
+    @Override
+    public String toString() {
+      return getTagName() + "#" + index;
+    }
+  }
+
+  final private String[] tagNames;
+  final private int[] tagIds;
+  final private int[] parents;
+  final private int[] attributeOffsets;
+  final private String[] attributeNames;
+  final private String[] attributeValues;
+  final private Object[] sources;
+  final private View[] views;
+
+  /**
+   * @param tagNames the tag name of each view
+   * @param parents the index of the parent of each view or -1
+   * @param attributeOffsets the offset of the first attribute of each view plus the total number of attributes
+   * @param sources the element of each view, e.g. an XmlTag
+   */
+  LayoutViews(List<String> tagNames, List<Integer> parents, List<Integer> attributeOffsets, List<String> attributeNames,
+              List<String> attributeValues, List<Object> sources) {
+    Map<String, Integer> tagNameIds = new HashMap<String, Integer>();
+    List<String> tagNameList = new ArrayList<String>();
+    int size = tagNames.size();
+    tagIds = new int[size];
+    for (int i = 0; i < size; i++) {
+      String tagName = tagNames.get(i);
+      Integer id = tagNameIds.get(tagName);
+      if (id == null) {
+        id = tagNameList.size();
+        tagNameIds.put(tagName, id);
+        tagNameList.add(tagName);
+      }
+      tagIds[i] = id;
+    }
+    this.tagNames = tagNameList.toArray(new String[tagNameList.size()]);
+    this.parents = toArray(parents);
+    this.attributeOffsets = toArray(attributeOffsets);
+    this.attributeNames = attributeNames.toArray(new String[attributeNames.size()]);
+    this.attributeValues = attributeValues.toArray(new String[attributeValues.size()]);
+    this.sources = sources.toArray(new Object[sources.size()]);
+    views = new View[size];
+    for (int i = 0; i < size; i++)
+      views[i] = new View(this, i);
+  }
+
+  static private int[] toArray(List<Integer> list) {
+    int[] array = new int[list.size()];
+    for (int i = 0; i < array.length; i++)
+      array[i] = list.get(i);
+    return array;
+  }
+
+  public int getViewCount() {
+    return views.length;
+  }
+
+  public View getView(int index) {
+    return views[index];
+  }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.ac.auckland.alm.alternatives;
+
+import nz.ac.auckland.alm.IArea;
+import nz.ac.auckland.alm.algebra.Fragment;
+import nz.ac.auckland.alm.algebra.trafo.Classification;
+import nz.ac.auckland.alm.algebra.trafo.ObjectiveTerm;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+
+/**
+ * Estimated runtime cost of measuring the layout on a device.
+ *
+ * The cost is estimated on the layout that is actually written, i.e. the flattened fragment (see LayoutFlattener) with
+ * the sizes and weights of LayoutSizing. The cost is computed for every classified permutation, so the flattening and
+ * the sizing are done in one walk without copying the fragment.
+ *
+ * A LinearLayout measures children with a layout_weight twice, so the views below a weighted child are measured twice
+ * as often, for each weighted level. The term is the number of view measurements per leaf view, including the
+ * LinearLayouts, minus one, plus DEPTH_COST for each nesting level beyond the first. A flat layout without weights has
+ * a value close to zero.
+ *
+ * A classification doesn't know its fragment, so the costs are recorded by the SearchClassifiers that share the term.
+ * The term is 0 for classifications that have not been recorded.
+ */
+public class MeasureCostTerm extends ObjectiveTerm {
+  static final public String NAME = "MeasureCost";
+  static final private float WEIGHT = 0.2f;
+  static final private double DEPTH_COST = 0.1;
+
+  // the term is shared by the classifiers of a search and the UI
+  final private Map<Classification, Double> costs
+    = Collections.synchronizedMap(new WeakHashMap<Classification, Double>());
+
+  public MeasureCostTerm() {
+    super(NAME, WEIGHT);
+  }
+
+  @Override
+  public double value(Classification classification) {
+    Double cost = costs.get(classification);
+    if (cost == null)
+      return 0;
+    return cost;
+  }
+
+  public void record(Classification classification, Fragment fragment) {
+    costs.put(classification, estimateCost(fragment));
+  }
+
+  /**
+   * A view or a LinearLayout of the written layout. For a LinearLayout the counts are summed over its items, so a
+   * redundant LinearLayout with the direction of its parent can be merged into the parent by adding its counts.
+   */
+  static private class Cost {
+    final boolean group;
+    final boolean horizontal;
+    final Object cookie;
+    // measurements of the items if the LinearLayout is measured once, a weighted item is measured twice
+    double itemMeasures = 0;
+    int itemCount = 0;
+    int itemDepth = 0;
+    int leafs = 0;
+    boolean hasChildGroup = false;
+    // if a view inside the LinearLayout (only nested in LinearLayouts) or the view itself matches the parent
+    boolean viewMatchesWidth = false;
+    boolean viewMatchesHeight = false;
+
+    Cost(boolean group, boolean horizontal, Object cookie) {
+      this.group = group;
+      this.horizontal = horizontal;
+      this.cookie = cookie;
+    }
+
+    double getMeasures() {
+      return 1 + itemMeasures;
+    }
+
+    int getDepth() {
+      return group ? itemDepth + 1 : 0;
+    }
+
+    boolean matchesWidth() {
+      return viewMatchesWidth || (group && !hasChildGroup && horizontal);
+    }
+
+    boolean matchesHeight() {
+      return viewMatchesHeight || (group && !hasChildGroup && !horizontal);
+    }
+
+    void add(Cost item) {
+      boolean weighted = horizontal ? item.matchesWidth() : item.matchesHeight();
+      itemMeasures += weighted ? 2 * item.getMeasures() : item.getMeasures();
+      itemCount++;
+      itemDepth = Math.max(itemDepth, item.getDepth());
+      leafs += item.leafs;
+      hasChildGroup |= item.group;
+      viewMatchesWidth |= item.viewMatchesWidth;
+      viewMatchesHeight |= item.viewMatchesHeight;
+    }
+
+    /**
+     * Adds the items of a LinearLayout with the same direction.
+     */
+    void merge(Cost group) {
+      itemMeasures += group.itemMeasures;
+      itemCount += group.itemCount;
+      itemDepth = Math.max(itemDepth, group.itemDepth);
+      leafs += group.leafs;
+      hasChildGroup |= group.hasChildGroup;
+      viewMatchesWidth |= group.viewMatchesWidth;
+      viewMatchesHeight |= group.viewMatchesHeight;
+    }
+  }
+
+  /**
+   * The layout is flattened and sized like by LayoutFlattener and LayoutSizing, but in a single read-only walk that
+   * doesn't copy the fragment.
+   */
+  static public double estimateCost(Fragment fragment) {
+    Cost cost = getCost(fragment, true);
+    if (cost.leafs == 0)
+      return 0;
+    return cost.getMeasures() / cost.leafs - 1 + DEPTH_COST * Math.max(0, cost.getDepth() - 1);
+  }
+
+  static private Cost getCost(IArea area, boolean root) {
+    if (!(area instanceof Fragment)) {
+      Cost cost = new Cost(false, false, area.getCookie());
+      cost.leafs = 1;
+      String width = LayoutCookies.getAttribute(cost.cookie, LayoutSizing.LAYOUT_WIDTH);
+      String height = LayoutCookies.getAttribute(cost.cookie, LayoutSizing.LAYOUT_HEIGHT);
+      cost.viewMatchesWidth = LayoutSizing.isMatchParent(width);
+      cost.viewMatchesHeight = LayoutSizing.isMatchParent(height);
+      return cost;
+    }
+
+    Fragment fragment = (Fragment)area;
+    Cost cost = new Cost(true, fragment.isHorizontalDirection(), fragment.getCookie());
+    Cost single = null;
+    for (IArea item : (Iterable<IArea>)fragment.getItems()) {
+      Cost itemCost = getCost(item, false);
+      if (itemCost.group && itemCost.horizontal == cost.horizontal && LayoutFlattener.isRedundant(itemCost.cookie)) {
+        cost.merge(itemCost);
+        continue;
+      }
+      cost.add(itemCost);
+      single = itemCost;
+    }
+
+    if (cost.itemCount == 1 && single != null) {
+      if (!root && LayoutFlattener.isRedundant(cost.cookie))
+        return single;
+      if (single.group && LayoutFlattener.isRedundant(single.cookie)) {
+        // take over the direction and the items of the child
+        Cost takeOver = new Cost(true, single.horizontal, cost.cookie);
+        takeOver.merge(single);
+        return takeOver;
+      }
+    }
+    return cost;
+  }
+}
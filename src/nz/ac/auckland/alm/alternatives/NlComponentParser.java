@@ -15,6 +15,7 @@
  */
 package nz.ac.auckland.alm.alternatives;
 
+import com.android.ide.common.resources.ResourceResolver;
 import com.android.tools.idea.uibuilder.model.NlComponent;
 import com.intellij.psi.xml.XmlAttribute;
 import com.intellij.psi.xml.XmlTag;
@@ -23,40 +24,161 @@ import nz.ac.auckland.alm.IArea;
 import nz.ac.auckland.alm.algebra.Fragment;
 import nz.ac.auckland.alm.android.AbstractViewInfoParser;
 
-import java.lang.reflect.Field;
-import java.lang.reflect.Method;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
 
 
 public class NlComponentParser {
   static final private String LINEAR_LAYOUT_NAME = "LinearLayout";
 
-  static public IArea parse(NlComponent component) {
+  /**
+   * Parses the rendered layout. The cookies of the areas are the LayoutViews of the layout.
+   *
+   * @param resolver resolves the attribute values of the snapshot
+   */
+  static public IArea parse(NlComponent component, ResourceResolver resolver) {
+    IArea area = parse(component, new ViewInfoParser());
+    LayoutSnapshot.create(area, resolver);
+    return area;
+  }
+
+  static private IArea parse(NlComponent component, ViewInfoParser parser) {
     XmlTag element = component.getTag();
     if (element.getName().equals(LINEAR_LAYOUT_NAME))
-      return parseLinearLayout(component);
+      return parseLinearLayout(component, parser);
     else {
-      IArea item = toArea(component);
+      IArea item = toArea(component, parser);
       return item;
     }
   }
 
-  static private Fragment parseLinearLayout(NlComponent layoutComponent) {
-    XmlTag layout = layoutComponent.getTag();
+  /**
+   * Parses the layout from the XML without rendering it. The view sizes are taken from the metrics database, the cookies
+   * of the areas are the LayoutViews of the layout.
+   *
+   * @param resolver resolves the attribute values of the snapshot
+   * @return the layout or null if the database doesn't have the sizes of all views
+   */
+  static public IArea parse(XmlTag tag, WidgetMetrics metrics, ResourceResolver resolver) {
+    IArea area = parseTag(tag, metrics);
+    if (area != null)
+      LayoutSnapshot.create(area, resolver);
+    return area;
+  }
+
+  static private IArea parseTag(XmlTag tag, WidgetMetrics metrics) {
+    if (tag.getName().equals(LINEAR_LAYOUT_NAME))
+      return parseLinearLayout(tag, metrics);
+    WidgetMetrics.Entry entry = metrics.get(tag);
+    if (entry == null)
+      return null;
+    Area area = new Area();
+    area.setCookie(tag);
+    area.setMinSize(new Area.Size(entry.minSize.getWidth(), entry.minSize.getHeight()));
+    area.setPreferredSize(new Area.Size(entry.preferredSize.getWidth(), entry.preferredSize.getHeight()));
+    area.setMaxSize(new Area.Size(entry.maxSize.getWidth(), entry.maxSize.getHeight()));
+    return area;
+  }
+
+  static private Fragment parseLinearLayout(XmlTag layout, WidgetMetrics metrics) {
+    Fragment fragment = createLinearLayoutFragment(layout);
+    fragment.setCookie(layout);
+    for (XmlTag child : layout.getSubTags()) {
+      IArea item = parseTag(child, metrics);
+      if (item == null)
+        return null;
+      fragment.add(item, false);
+    }
+    return fragment;
+  }
+
+  static private Fragment createLinearLayoutFragment(XmlTag layout) {
     XmlAttribute orientationAttribute = layout.getAttribute("android:orientation");
-    Fragment fragment;
     if (orientationAttribute != null && orientationAttribute.getValue() != null && orientationAttribute.getValue().equals("vertical"))
-      fragment = Fragment.createEmptyFragment(Fragment.verticalDirection);
-    else
-      fragment = Fragment.createEmptyFragment(Fragment.horizontalDirection);
+      return Fragment.createEmptyFragment(Fragment.verticalDirection);
+    return Fragment.createEmptyFragment(Fragment.horizontalDirection);
+  }
+
+  static private Fragment parseLinearLayout(NlComponent layoutComponent, ViewInfoParser parser) {
+    Fragment fragment = createLinearLayoutFragment(layoutComponent.getTag());
     fragment.setCookie(layoutComponent);
     for (int i = 0; i < layoutComponent.getChildCount(); i++) {
       NlComponent child = layoutComponent.getChild(i);
-      fragment.add(parse(child), false);
+      fragment.add(parse(child, parser), false);
     }
 
     return fragment;
   }
 
+  /**
+   * Method handles of a view class, a handle is null if the class doesn't have the method.
+   */
+  static private class ViewMethods {
+    final MethodHandle measure;
+    final MethodHandle getMeasuredWidth;
+    final MethodHandle getMeasuredHeight;
+    final MethodHandle getMinimumWidth;
+    final MethodHandle getMinimumHeight;
+
+    ViewMethods(Class<?> viewClass) {
+      measure = findMethod(viewClass, "measure", int.class, int.class);
+      getMeasuredWidth = findMethod(viewClass, "getMeasuredWidth");
+      getMeasuredHeight = findMethod(viewClass, "getMeasuredHeight");
+      getMinimumWidth = findMethod(viewClass, "getMinimumWidth");
+      getMinimumHeight = findMethod(viewClass, "getMinimumHeight");
+    }
+  }
+
+  /**
+   * Getters of the width and height fields of a layout params class, null if the class doesn't have the fields.
+   */
+  static private class LayoutParamsFields {
+    final MethodHandle width;
+    final MethodHandle height;
+
+    LayoutParamsFields(Class<?> layoutParamsClass) {
+      width = findGetter(layoutParamsClass, "width");
+      height = findGetter(layoutParamsClass, "height");
+    }
+  }
+
+  static final private ClassValue<ViewMethods> VIEW_METHODS = new ClassValue<ViewMethods>() {
+    @Override
+    protected ViewMethods computeValue(Class<?> type) {
+      return new ViewMethods(type);
+    }
+  };
+
+  static final private ClassValue<LayoutParamsFields> LAYOUT_PARAMS_FIELDS = new ClassValue<LayoutParamsFields>() {
+    @Override
+    protected LayoutParamsFields computeValue(Class<?> type) {
+      return new LayoutParamsFields(type);
+    }
+  };
+
+  static private MethodHandle findMethod(Class<?> type, String name, Class<?>... parameterTypes) {
+    try {
+      return MethodHandles.publicLookup().unreflect(type.getMethod(name, parameterTypes));
+    } catch (Exception e) {
+      return null;
+    }
+  }
+
+  static private MethodHandle findGetter(Class<?> type, String name) {
+    try {
+      return MethodHandles.publicLookup().unreflectGetter(type.getField(name));
+    } catch (Exception e) {
+      return null;
+    }
+  }
+
+  /**
+   * Parser of the view sizes of one parse run. The reflective lookups are cached per view class and the measurements per
+   * component and measure spec.
+   */
   static class ViewInfoParser extends AbstractViewInfoParser<NlComponent> {
     static public final int AT_MOST = -2147483648;
     static public final int EXACTLY = 1073741824;
@@ -75,15 +197,34 @@ public class NlComponentParser {
       return (size & ~MODE_MASK) | (mode & MODE_MASK);
     }
 
-    static private Area.Size measureSize(NlComponent component, int width, int height, int mode) {
-      Object view = component.viewInfo.getViewObject();
+    // measured sizes per component, keyed by the two measure specs
+    final private Map<NlComponent, Map<Long, Area.Size>> measurements
+      = new IdentityHashMap<NlComponent, Map<Long, Area.Size>>();
+
+    private Area.Size measureSize(NlComponent component, int width, int height, int mode) {
+      int widthSpec = makeMeasureSpec(width, mode);
+      int heightSpec = makeMeasureSpec(height, mode);
+      Map<Long, Area.Size> componentMeasurements = measurements.get(component);
+      if (componentMeasurements == null) {
+        componentMeasurements = new HashMap<Long, Area.Size>();
+        measurements.put(component, componentMeasurements);
+      }
+      Long key = ((long)widthSpec << 32) | (heightSpec & 0xffffffffL);
+      Area.Size size = componentMeasurements.get(key);
+      if (size == null) {
+        size = measureSize(component.viewInfo.getViewObject(), widthSpec, heightSpec);
+        componentMeasurements.put(key, size);
+      }
+      // callers may modify the size
+      return new Area.Size(size.getWidth(), size.getHeight());
+    }
+
+    static private Area.Size measureSize(Object view, int widthSpec, int heightSpec) {
       try {
-        Method measure = view.getClass().getMethod("measure", int.class, int.class);
-        Method getMeasuredWidth = view.getClass().getMethod("getMeasuredWidth");
-        Method getMeasuredHeight = view.getClass().getMethod("getMeasuredHeight");
-        measure.invoke(view, makeMeasureSpec(width, mode), makeMeasureSpec(height, mode));
-        return new Area.Size((Integer)getMeasuredWidth.invoke(view), (Integer)getMeasuredHeight.invoke(view));
-      } catch (Exception e) {
+        ViewMethods methods = VIEW_METHODS.get(view.getClass());
+        methods.measure.invoke(view, widthSpec, heightSpec);
+        return new Area.Size((Integer)methods.getMeasuredWidth.invoke(view), (Integer)methods.getMeasuredHeight.invoke(view));
+      } catch (Throwable e) {
         return new Area.Size(MATCH_PARENT, MATCH_PARENT);
       }
     }
@@ -92,10 +233,9 @@ public class NlComponentParser {
     protected Area.Size getLayoutParams(NlComponent component) {
       Object layoutParams = component.viewInfo.getLayoutParamsObject();
       try {
-        Field width = layoutParams.getClass().getField("width");
-        Field height = layoutParams.getClass().getField("height");
-        return new Area.Size((Integer)width.get(layoutParams), (Integer)height.get(layoutParams));
-      } catch (Exception e) {
+        LayoutParamsFields fields = LAYOUT_PARAMS_FIELDS.get(layoutParams.getClass());
+        return new Area.Size((Integer)fields.width.invoke(layoutParams), (Integer)fields.height.invoke(layoutParams));
+      } catch (Throwable e) {
         return new Area.Size(WRAP_CONTENT, WRAP_CONTENT);
       }
     }
@@ -115,13 +255,10 @@ public class NlComponentParser {
     protected Area.Size getMinSizeRaw(NlComponent component) {
       Object view = component.viewInfo.getViewObject();
       try {
-        Method minWidth = view.getClass().getMethod("getMinimumWidth");
-        Method minHeight = view.getClass().getMethod("getMinimumHeight");
-        Object width = minWidth.invoke(view);
-        Object height = minHeight.invoke(view);
-        return new Area.Size((Integer)width, (Integer)height);
+        ViewMethods methods = VIEW_METHODS.get(view.getClass());
+        return new Area.Size((Integer)methods.getMinimumWidth.invoke(view), (Integer)methods.getMinimumHeight.invoke(view));
       }
-      catch (Exception e) {
+      catch (Throwable e) {
         e.printStackTrace();
         return new Area.Size(-1, -1);
       }
@@ -172,10 +309,9 @@ public class NlComponentParser {
     return explicitPrefSize;
   }
 
-  static private Area toArea(NlComponent component) {
+  static private Area toArea(NlComponent component, ViewInfoParser parser) {
     Area area = new Area();
     area.setCookie(component);
-    ViewInfoParser parser = new ViewInfoParser();
     area.setMinSize(parser.getMinSize(component, readExplicitMinSize(component)));
     area.setPreferredSize(parser.getPreferredSize(component, readExplicitPrefSize(component)));
     area.setMaxSize(parser.getMaxSize(component));
@@ -16,22 +16,37 @@
 package nz.ac.auckland.alm.alternatives;
 
 
+import com.android.ide.common.resources.ResourceResolver;
 import com.android.tools.idea.AndroidPsiUtils;
+import com.android.tools.idea.rendering.RenderService;
 import com.android.tools.idea.uibuilder.editor.NlEditor;
 import com.android.tools.idea.uibuilder.editor.NlEditorPanel;
+import com.android.tools.idea.uibuilder.editor.NlPreviewForm;
+import com.android.tools.idea.uibuilder.editor.NlPreviewManager;
 import com.android.tools.idea.uibuilder.model.NlComponent;
 import com.android.tools.idea.uibuilder.model.NlModel;
 import com.android.tools.idea.uibuilder.surface.DesignSurface;
+import com.android.tools.idea.uibuilder.surface.ScreenView;
 import com.intellij.openapi.actionSystem.AnAction;
 import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.ModalityState;
+import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.editor.Document;
 import com.intellij.openapi.editor.Editor;
 import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.fileEditor.FileEditor;
 import com.intellij.openapi.fileEditor.FileEditorManager;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.progress.Task;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiDocumentManager;
 import com.intellij.psi.PsiFile;
 import com.intellij.psi.xml.XmlFile;
+import com.intellij.psi.xml.XmlTag;
+import nz.ac.auckland.alm.Area;
 import nz.ac.auckland.alm.IArea;
 import nz.ac.auckland.alm.algebra.Fragment;
 import nz.ac.auckland.alm.algebra.trafo.*;
@@ -39,69 +54,17 @@ import nz.ac.auckland.alm.alternatives.gui.AlternativeController;
 import nz.ac.auckland.alm.alternatives.gui.AlternativeMain;
 import org.jetbrains.android.dom.layout.LayoutDomFileDescription;
 import org.jetbrains.android.facet.AndroidFacet;
+import org.jetbrains.annotations.NotNull;
 
+import javax.swing.*;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.util.ArrayList;
-import java.util.Comparator;
 import java.util.List;
 
 
 public abstract class OrientationTrafoAction extends AnAction {
-
-  private Comparator<IArea> comparator = new Comparator<IArea>() {
-    private String fragmentId(Fragment fragment) {
-      String id = "";
-      if (fragment.isHorizontalDirection())
-        id += "h";
-      else
-        id += "v";
-      for (IArea item : (Iterable<IArea>)fragment.getItems()) {
-        if (item instanceof Fragment)
-          id += fragmentId((Fragment)item);
-        else
-          id += areaId(item);
-      }
-      return id;
-    }
-
-    private String areaId(IArea area) {
-      if (area.getCookie() == null) {
-        if (area.getId() == null)
-          return "area";
-        else
-          return area.getId();
-      }
-      NlComponent component = (NlComponent)area.getCookie();
-      return component.getTagName();
-    }
-
-    @Override
-    public int compare(IArea area0, IArea area1) {
-      String area0Id;
-      String area1Id;
-      if (area0 instanceof Fragment)
-        area0Id = fragmentId((Fragment)area0);
-      else
-        area0Id = areaId(area0);
-
-      if (area1 instanceof Fragment)
-        area1Id = fragmentId((Fragment)area1);
-      else
-        area1Id = areaId(area1);
-
-      if (area0Id.equals(area1Id))
-        return 0;
-      return -1;
-    }
-  };
-
-  private int getEquivalent(List<FragmentAlternatives.Result> results, Fragment fragment) {
-    for (int i = 0; i < results.size(); i++) {
-      Fragment result = results.get(i).fragment;
-      if (result.isEquivalent(fragment))
-        return i;
-    }
-    return -1;
-  }
+  private static final Logger LOG = Logger.getInstance(OrientationTrafoAction.class);
 
   @Override
   public void actionPerformed(AnActionEvent e) {
@@ -114,7 +77,7 @@ public abstract class OrientationTrafoAction extends AnAction {
     final Document document = editor.getDocument();
     if (document == null)
       return;
-    VirtualFile virtualFile = FileDocumentManager.getInstance().getFile(document);
+    final VirtualFile virtualFile = FileDocumentManager.getInstance().getFile(document);
     if (virtualFile == null)
       return;
 
@@ -124,46 +87,265 @@ public abstract class OrientationTrafoAction extends AnAction {
     AndroidFacet facet = AndroidFacet.getInstance(psiFile);
 
     final XmlFile xmlFile = (XmlFile)psiFile;
+    XmlTag rootTag = xmlFile.getRootTag();
+    if (rootTag == null)
+      return;
     LayoutRenderer layoutRenderer = new LayoutRenderer(project, xmlFile);
 
-    // main layout
-    NlEditor nlEditor = new NlEditor(facet, virtualFile, project);
-    NlEditorPanel nlEditorPanel = new NlEditorPanel(nlEditor, facet, virtualFile);
-    DesignSurface surface = new DesignSurface(project, nlEditorPanel);
-    NlModel model = NlModel.create(surface, nlEditor, facet, xmlFile);
-    surface.setModel(model);
-    model.render();
-    nlEditor.dispose();
-
-    if (model.getComponents().size() != 1)
+    // main layout: use the rendering of an open layout editor, then the metrics database, and only render the layout if
+    // both are not available
+    WidgetMetrics metrics = WidgetMetrics.getInstance(project, WidgetMetrics.getConfigurationKey(facet, virtualFile));
+    // the snapshot of the parsed layout holds the attribute values resolved for the configuration
+    ResourceResolver resolver = facet.getConfigurationManager().getConfiguration(virtualFile).getResourceResolver();
+    NlComponent root = findRenderedRoot(project, virtualFile, xmlFile, document);
+    Area.Size rootSize = null;
+    IArea item = null;
+    if (root == null) {
+      rootSize = metrics.getRootSize();
+      if (rootSize != null) {
+        PipelineEvents.Span parseSpan = PipelineEvents.begin(PipelineEvents.Stage.PARSE, xmlFile.getName());
+        try {
+          item = NlComponentParser.parse(rootTag, metrics, resolver);
+        } finally {
+          parseSpan.setComponentCount(item != null ? PipelineEvents.countLeafs(item) : 0).end();
+        }
+      }
+    }
+    if (item == null) {
+      if (root == null)
+        root = render(project, facet, virtualFile, xmlFile);
+      if (root == null)
+        return;
+      PipelineEvents.Span parseSpan = PipelineEvents.begin(PipelineEvents.Stage.PARSE, xmlFile.getName());
+      try {
+        // the views are measured through layoutlib, which is not thread safe, and an open editor may render at any time
+        synchronized (RenderService.getRenderingLock()) {
+          item = NlComponentParser.parse(root, resolver);
+          rootSize = new Area.Size(root.w, root.h);
+        }
+      } finally {
+        parseSpan.setComponentCount(item != null ? PipelineEvents.countLeafs(item) : 0).end();
+      }
+      metrics.record(item, rootSize);
+      metrics.save();
+    }
+    if (!(item instanceof Fragment))
       return;
-    NlComponent root = model.getComponents().get(0);
+    final Fragment mainFragment = (Fragment)item;
 
-    final IArea item = NlComponentParser.parse(root);
-    if (!(item instanceof Fragment))
+    final int targetWidth = (int)rootSize.getHeight();
+    final int targetHeight = (int)rootSize.getWidth();
+    // the dialog shows the classifications of the search classifiers, so they share its measure cost term
+    final SearchClassifier classifier = new SearchClassifier(targetWidth, targetHeight);
+
+    // show the dialog right away, alternatives are added while the search is running
+    final AlternativeController alternativeController = new AlternativeController(psiFile.getName(),
+                                                                                  new ArrayList<AlternativeInfo>());
+    JDialog dialog = AlternativeMain.showAlternatives(project, xmlFile, mainFragment, alternativeController, layoutRenderer,
+                                                      classifier);
+
+    final SearchProfile profile = AlternativeSettings.getInstance().getProfile();
+    final AlternativeCache cache = new AlternativeCache(project);
+    final String cacheKey = AlternativeCache.createKey(xmlFile.getText(),
+                                                       getClass().getName() + ":" + getOutputDir() + ":" + profile,
+                                                       targetWidth, targetHeight);
+    final String stateKey = getClass().getName() + ":" + targetWidth + "x" + targetHeight + ":" + profile;
+    final List<Fragment> cached = cache.load(cacheKey, mainFragment);
+    if (cached != null) {
+      // the cached alternatives only need to be classified, this is done off the EDT with a classifier of its own
+      final String outputDir = getOutputDir();
+      ProgressManager.getInstance().run(new Task.Backgroundable(project, "Loading Layout Alternatives", true) {
+        @Override
+        public void run(@NotNull ProgressIndicator indicator) {
+          SearchClassifier cacheClassifier = new SearchClassifier(targetWidth, targetHeight, classifier.getMeasureCost());
+          cacheClassifier.setProgress(new IndicatorProgress(indicator));
+          final List<AlternativeInfo> alternatives = new ArrayList<AlternativeInfo>();
+          // the cached search is reported as a search stage, so cache hits show up next to full searches
+          PipelineEvents.Span searchSpan = PipelineEvents.begin(PipelineEvents.Stage.SEARCH, xmlFile.getName())
+            .setComponentCount(PipelineEvents.countLeafs(mainFragment));
+          try {
+            for (Fragment alternative : cached) {
+              Classification classification = cacheClassifier.classify(alternative, new TrafoHistory());
+              alternatives.add(new AlternativeInfo(alternative, classification,
+                                                   cacheClassifier.objectiveValue(classification), outputDir));
+            }
+          } catch (SearchClassifier.SearchStoppedException e) {
+            return;
+          } finally {
+            searchSpan.setResultCount(alternatives.size()).end();
+          }
+          IncrementalSearch.remember(project, virtualFile, stateKey, mainFragment, alternatives);
+          ApplicationManager.getApplication().invokeLater(new Runnable() {
+            @Override
+            public void run() {
+              alternativeController.setAlternatives(alternatives);
+            }
+          }, ModalityState.any());
+        }
+      });
       return;
-    Fragment mainFragment = (Fragment)item;
+    }
+
+    final AlternativeSearch.ISetup setup = new AlternativeSearch.ISetup() {
+      @Override
+      public SearchClassifier createClassifier() {
+        return new SearchClassifier(targetWidth, targetHeight, classifier.getMeasureCost());
+      }
+
+      @Override
+      public FragmentAlternatives createFragmentAlternatives(SearchClassifier classifier) {
+        return new FragmentAlternatives(classifier, new FilteredGroupDetector());
+      }
+
+      @Override
+      public IPermutationSelector<Classification> createSelector(FragmentAlternatives fragmentAlternatives, int worker,
+                                                                 SearchStats stats) {
+        return getSelector(fragmentAlternatives, worker, stats);
+      }
+    };
+    final AlternativeSearch search = new AlternativeSearch(mainFragment, setup, getOutputDir(),
+                                                           Runtime.getRuntime().availableProcessors(), profile);
+    final IncrementalSearch incrementalSearch = new IncrementalSearch(mainFragment, setup, classifier, getOutputDir(),
+                                                                      profile.getMaxResults());
+    dialog.addWindowListener(new WindowAdapter() {
+      @Override
+      public void windowClosed(WindowEvent windowEvent) {
+        incrementalSearch.cancel();
+        search.cancel();
+      }
+    });
+
+    ProgressManager.getInstance().run(new Task.Backgroundable(project, "Searching Layout Alternatives", true) {
+      @Override
+      public void run(@NotNull ProgressIndicator indicator) {
+        AlternativeSearch.IProgress progress = new IndicatorProgress(indicator);
+        final PipelineEvents.Span searchSpan = PipelineEvents.begin(PipelineEvents.Stage.SEARCH, xmlFile.getName())
+          .setComponentCount(PipelineEvents.countLeafs(mainFragment));
+        AlternativeSearch.IListener listener = new AlternativeSearch.IListener() {
+          @Override
+          public void onAlternativesFound(final List<AlternativeInfo> alternatives) {
+            ApplicationManager.getApplication().invokeLater(new Runnable() {
+              @Override
+              public void run() {
+                alternativeController.addAlternatives(alternatives);
+              }
+            }, ModalityState.any());
+          }
+
+          @Override
+          public void onSearchFinished(final List<AlternativeInfo> alternatives, boolean canceled) {
+            searchSpan.setResultCount(alternatives.size()).end();
+            if (!canceled) {
+              List<Fragment> fragments = new ArrayList<Fragment>();
+              for (AlternativeInfo alternative : alternatives)
+                fragments.add(alternative.getFragment());
+              cache.store(cacheKey, mainFragment, fragments);
+              IncrementalSearch.remember(project, virtualFile, stateKey, mainFragment, alternatives);
+            }
+            final SearchStats stats = search.getStats();
+            ApplicationManager.getApplication().invokeLater(new Runnable() {
+              @Override
+              public void run() {
+                alternativeController.setAlternatives(alternatives);
+                if (stats != null)
+                  alternativeController.setStats(stats);
+              }
+            }, ModalityState.any());
+          }
+        };
+
+        try {
+          // after small edits only the changed parts of the layout need to be searched, the span covers both paths
+          List<AlternativeInfo> alternatives = incrementalSearch.run(project, virtualFile, stateKey, progress);
+          if (alternatives != null) {
+            listener.onSearchFinished(alternatives, false);
+            return;
+          }
+          search.run(progress, listener);
+          LOG.info(search.getSummary());
+          LOG.debug(String.valueOf(search.getStats()));
+        } finally {
+          searchSpan.end();
+        }
+      }
+    });
+  }
 
-    Classifier classifier = new Classifier(root.h, root.w);
-    FragmentAlternatives fragmentAlternatives = new FragmentAlternatives(classifier, new FilteredGroupDetector(comparator));
-    IPermutationSelector<Classification> selector = getSelector(fragmentAlternatives);
+  /**
+   * Looks for an open layout editor or layout preview of the file whose rendering is up to date, i.e. whose model has been
+   * updated from the current PSI file. The components of the editor must only be read under the rendering lock.
+   *
+   * @return the rendered root component or null if there is no such editor
+   */
+  static private NlComponent findRenderedRoot(Project project, VirtualFile virtualFile, XmlFile xmlFile,
+                                              Document document) {
+    if (PsiDocumentManager.getInstance(project).isUncommited(document))
+      return null;
+    List<DesignSurface> surfaces = new ArrayList<DesignSurface>();
+    for (FileEditor fileEditor : FileEditorManager.getInstance(project).getEditors(virtualFile)) {
+      if (fileEditor instanceof NlEditor)
+        surfaces.add(((NlEditor)fileEditor).getComponent().getSurface());
+    }
+    NlPreviewForm previewForm = NlPreviewManager.getInstance(project).getPreviewForm();
+    if (previewForm != null)
+      surfaces.add(previewForm.getSurface());
 
-    List<FragmentAlternatives.Result> alternatives = new ArrayList<FragmentAlternatives.Result>();
-    List<FragmentAlternatives.Result> results = fragmentAlternatives.calculateAlternatives(mainFragment, selector, 300, 5 * 1000 * 60, 40);
-    for (FragmentAlternatives.Result result : results) {
-      if (getEquivalent(alternatives, result.fragment) < 0)
-        alternatives.add(result);
+    for (DesignSurface surface : surfaces) {
+      ScreenView screenView = surface.getCurrentScreenView();
+      if (screenView == null)
+        continue;
+      NlModel model = screenView.getModel();
+      if (model.getFile() != xmlFile || model.getModificationStamp() != xmlFile.getModificationStamp())
+        continue;
+      synchronized (RenderService.getRenderingLock()) {
+        if (model.getRenderResult() == null || model.getComponents().size() != 1)
+          continue;
+        NlComponent root = model.getComponents().get(0);
+        if (isRendered(root))
+          return root;
+      }
     }
+    return null;
+  }
 
-    List<AlternativeInfo> alternativeInfos = new ArrayList<AlternativeInfo>();
-    for (FragmentAlternatives.Result alternative : alternatives)
-      alternativeInfos.add(new AlternativeInfo(alternative, getOutputDir()));
+  /**
+   * @return true if the component and all its children have view infos, i.e. no view has been added since the last render
+   */
+  static private boolean isRendered(NlComponent component) {
+    if (component.viewInfo == null)
+      return false;
+    for (int i = 0; i < component.getChildCount(); i++) {
+      if (!isRendered(component.getChild(i)))
+        return false;
+    }
+    return true;
+  }
 
-    AlternativeController alternativeController = new  AlternativeController(psiFile.getName(), alternativeInfos, classifier);
-    alternativeController.sortByObjectiveValue();
-    AlternativeMain.showAlternatives(project, xmlFile, mainFragment, alternativeController, layoutRenderer, classifier);
+  /**
+   * Renders the layout with layoutlib.
+   *
+   * @return the root component or null if the layout doesn't have a single root
+   */
+  static private NlComponent render(Project project, AndroidFacet facet, VirtualFile virtualFile, XmlFile xmlFile) {
+    NlEditor nlEditor = new NlEditor(facet, virtualFile, project);
+    NlEditorPanel nlEditorPanel = new NlEditorPanel(nlEditor, facet, virtualFile);
+    DesignSurface surface = new DesignSurface(project, nlEditorPanel);
+    NlModel model = NlModel.create(surface, nlEditor, facet, xmlFile);
+    surface.setModel(model);
+    PipelineEvents.Span renderSpan = PipelineEvents.begin(PipelineEvents.Stage.RENDER, xmlFile.getName());
+    try {
+      model.render();
+    } finally {
+      renderSpan.setComponentCount(model.getComponents().size()).end();
+      nlEditor.dispose();
+    }
+
+    if (model.getComponents().size() != 1)
+      return null;
+    return model.getComponents().get(0);
   }
 
-  abstract protected IPermutationSelector<Classification> getSelector(FragmentAlternatives fragmentAlternatives);
+  abstract protected IPermutationSelector<Classification> getSelector(FragmentAlternatives fragmentAlternatives, int worker,
+                                                                      SearchStats stats);
   abstract protected String getOutputDir();
 }
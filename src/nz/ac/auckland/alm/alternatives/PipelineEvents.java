@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.ac.auckland.alm.alternatives;
+
+import com.intellij.openapi.diagnostic.Logger;
+import nz.ac.auckland.alm.IArea;
+import nz.ac.auckland.alm.algebra.Fragment;
+
+
+/**
+ * Timing of the stages of the alternative generation.
+ *
+ * Every stage is recorded as a Java Flight Recorder event (see JfrEvents) with the layout name, the number of components and
+ * the number of results, so a recording shows where the time and the allocations went. JfrEvents is only loaded if
+ * jdk.jfr is available, i.e. on JDK 11 or OpenJDK 8u262 and later. The stages are also logged on debug level.
+ */
+public class PipelineEvents {
+  private static final Logger LOG = Logger.getInstance(PipelineEvents.class);
+
+  public enum Stage {
+    RENDER,
+    PARSE,
+    SEARCH,
+    WRITE,
+    PREVIEW
+  }
+
+  static final private boolean JFR_AVAILABLE = isJfrAvailable();
+
+  static private boolean isJfrAvailable() {
+    try {
+      Class.forName("jdk.jfr.Event");
+      return true;
+    } catch (ClassNotFoundException e) {
+      return false;
+    } catch (LinkageError e) {
+      return false;
+    }
+  }
+
+  /**
+   * A running stage, call end() in a finally block when the stage is done. Only the first end() is recorded.
+   */
+  static public class Span {
+    final private Stage stage;
+    final private String layoutName;
+    final private long startTime = System.nanoTime();
+    // the JFR event, null if JFR is not available
+    final private Object event;
+    private int componentCount = -1;
+    private int resultCount = -1;
+    private boolean ended = false;
+
+    private Span(Stage stage, String layoutName) {
+      this.stage = stage;
+      this.layoutName = layoutName;
+      this.event = JFR_AVAILABLE ? JfrEvents.begin(stage) : null;
+    }
+
+    public Span setComponentCount(int componentCount) {
+      this.componentCount = componentCount;
+      return this;
+    }
+
+    public Span setResultCount(int resultCount) {
+      this.resultCount = resultCount;
+      return this;
+    }
+
+    public void end() {
+      if (ended)
+        return;
+      ended = true;
+      if (event != null)
+        JfrEvents.commit(event, layoutName, componentCount, resultCount);
+      if (LOG.isDebugEnabled()) {
+        LOG.debug(stage + " " + layoutName + ": " + (System.nanoTime() - startTime) / 1000000 + "ms, " + componentCount
+                  + " components, " + resultCount + " results");
+      }
+    }
+  }
+
+  static public Span begin(Stage stage, String layoutName) {
+    return new Span(stage, layoutName);
+  }
+
+  /**
+   * @return the number of leafs in the fragment tree
+   */
+  static public int countLeafs(IArea area) {
+    if (!(area instanceof Fragment))
+      return 1;
+    int count = 0;
+    for (IArea item : (Iterable<IArea>)((Fragment)area).getItems())
+      count += countLeafs(item);
+    return count;
+  }
+}
@@ -17,12 +17,21 @@ package nz.ac.auckland.alm.alternatives;
 
 import nz.ac.auckland.alm.algebra.trafo.*;
 
+import java.util.Arrays;
 import java.util.List;
 
 
 public class PortToLandAlternativeAction extends OrientationTrafoAction {
+    static final public String OUTPUT_DIR = "layout-land";
+
     @Override
-    protected IPermutationSelector<Classification> getSelector(FragmentAlternatives fragmentAlternatives) {
+    protected IPermutationSelector<Classification> getSelector(FragmentAlternatives fragmentAlternatives, int worker,
+                                                               SearchStats stats) {
+        return createSelector(fragmentAlternatives, worker, stats);
+    }
+
+    static public IPermutationSelector<Classification> createSelector(FragmentAlternatives fragmentAlternatives,
+                                                                      int worker, SearchStats stats) {
         SwapTrafo swapTrafo = new SwapTrafo();
         ColumnTrafo columnTrafo = new ColumnTrafo();
         InverseRowFlowTrafo inverseRowFlowTrafo = new InverseRowFlowTrafo();
@@ -31,19 +40,14 @@ public class PortToLandAlternativeAction extends OrientationTrafoAction {
         fragmentAlternatives.addTrafo(inverseRowFlowTrafo);
 
         List<ITransformation> trafos = fragmentAlternatives.getTrafos();
-        IPermutationSelector<Classification> selector
-          = new ChainPermutationSelector<Classification>(
-          new ApplyToAllPermutationSelector<Classification>(trafos, swapTrafo),
-          new ApplyToAllPermutationSelector<Classification>(trafos, columnTrafo),
-          new ApplyToAllPermutationSelector<Classification>(trafos, inverseRowFlowTrafo),
-          new RandomPermutationSelector<Classification>(trafos)
-        );
-
-        return selector;
+
+        List<ITransformation> stages = Arrays.<ITransformation>asList(swapTrafo, columnTrafo, inverseRowFlowTrafo);
+
+        return SelectorChains.create(trafos, stages, worker, stats);
     }
 
     @Override
     protected String getOutputDir() {
-        return "layout-land";
+        return OUTPUT_DIR;
     }
 }
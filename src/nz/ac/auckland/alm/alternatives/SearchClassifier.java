@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.ac.auckland.alm.alternatives;
+
+import nz.ac.auckland.alm.algebra.Fragment;
+import nz.ac.auckland.alm.algebra.trafo.Classification;
+import nz.ac.auckland.alm.algebra.trafo.Classifier;
+import nz.ac.auckland.alm.algebra.trafo.ObjectiveTerm;
+import nz.ac.auckland.alm.algebra.trafo.TrafoHistory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Classifier used by the alternative search.
+ *
+ * Every permutation the search explores passes through classify(). This is the place where the search can be observed and
+ * stopped from the outside. Permutations that are equivalent to an already classified permutation are not classified again
+ * and are not reported to the listener. Only the most recently used classifications are kept for this, so the memory of a
+ * long search stays bounded; an evicted permutation is simply classified again. The structural hash and the classification
+ * of every classified subtree are kept in a SubtreeMemo, so a subtree that is classified again is found without hashing
+ * and only the subtrees changed by a transformation are visited again.
+ *
+ * Every permutation that is not a duplicate is classified. There is no pruning: the objective terms of the Classifier
+ * don't provide a lower bound, and a permutation that misses the target size can still lead to permutations that fit.
+ *
+ * The classifier collects SearchStats: every permutation is attributed to the last trafo in its history and the objective
+ * terms are timed when they are evaluated. The trafo time is taken by the selectors, see SelectorChains.
+ *
+ * Besides the terms of the Classifier the objective contains a MeasureCostTerm, so that layouts that are expensive to
+ * measure on a device rank lower. Classifiers whose classifications are shown together share the MeasureCostTerm.
+ */
+public class SearchClassifier extends Classifier {
+  public interface IListener {
+    /**
+     * @return true if the permutation has been accepted into the results
+     */
+    boolean onClassified(Fragment fragment, TrafoHistory history, Classification classification);
+  }
+
+  /**
+   * Thrown from within the search to stop it early, e.g. when the user canceled the search.
+   */
+  static public class SearchStoppedException extends RuntimeException {
+  }
+
+  // max number of classifications kept for the detection of equivalent permutations
+  static final private int CLASSIFIED_CAPACITY = 20000;
+
+  private AlternativeSearch.IProgress progress;
+  private IListener listener;
+  private volatile boolean stopped = false;
+  final private FragmentIndex<Classification> classified = new FragmentIndex<Classification>(CLASSIFIED_CAPACITY);
+  final private SubtreeMemo memo = new SubtreeMemo();
+
+  final private SearchStats stats = new SearchStats();
+  final private MeasureCostTerm measureCost;
+  private List<ObjectiveTerm> objectiveTerms;
+
+  public SearchClassifier(int targetWidth, int targetHeight) {
+    this(targetWidth, targetHeight, new MeasureCostTerm());
+  }
+
+  public SearchClassifier(int targetWidth, int targetHeight, MeasureCostTerm measureCost) {
+    super(targetWidth, targetHeight);
+    this.measureCost = measureCost;
+  }
+
+  public void setProgress(AlternativeSearch.IProgress progress) {
+    this.progress = progress;
+  }
+
+  public void setListener(IListener listener) {
+    this.listener = listener;
+  }
+
+  public void stop() {
+    stopped = true;
+  }
+
+  public boolean isStopped() {
+    return stopped || (progress != null && progress.isCanceled());
+  }
+
+  @Override
+  public Classification classify(Fragment fragment, TrafoHistory history) {
+    if (isStopped())
+      throw new SearchStoppedException();
+
+    SearchStats.TrafoStats trafoStats = stats.getTrafoStats(getTrafoName(history));
+    trafoStats.applications++;
+    return classify(fragment, history, trafoStats);
+  }
+
+  private Classification classify(Fragment fragment, TrafoHistory history, SearchStats.TrafoStats trafoStats) {
+    // a subtree that has already been classified, e.g. a group that is classified again for the next permutation
+    Classification classification = memo.getClassification(fragment);
+    if (classification != null) {
+      trafoStats.duplicates++;
+      return classification;
+    }
+    long hash = memo.hash(fragment);
+    classification = classified.get(fragment, hash);
+    if (classification != null) {
+      memo.setClassification(fragment, classification);
+      trafoStats.duplicates++;
+      return classification;
+    }
+
+    classification = super.classify(fragment, history);
+    measureCost.record(classification, fragment);
+    classified.put(fragment, hash, classification);
+    memo.setClassification(fragment, classification);
+    trafoStats.unique++;
+    if (listener != null && listener.onClassified(fragment, history, classification))
+      trafoStats.accepted++;
+    return classification;
+  }
+
+  /**
+   * Classifies a permutation without the duplicate detection and without notifying the listener, e.g. to score a
+   * permutation found by the search of another target for this target.
+   */
+  public Classification classifyForTarget(Fragment fragment, TrafoHistory history) {
+    Classification classification = super.classify(fragment, history);
+    measureCost.record(classification, fragment);
+    return classification;
+  }
+
+  /**
+   * @return the name of the trafo that produced the permutation or "initial" for the original layout
+   */
+  static private String getTrafoName(TrafoHistory history) {
+    if (history == null || history.getNTrafos() == 0)
+      return "initial";
+    return history.getTrafo(history.getNTrafos() - 1).getClass().getSimpleName();
+  }
+
+  /**
+   * Times the evaluations of an objective term.
+   */
+  static private class TimedTerm extends ObjectiveTerm {
+    final private ObjectiveTerm term;
+    final private SearchStats stats;
+    final private SearchStats.TermStats termStats;
+
+    TimedTerm(ObjectiveTerm term, SearchStats stats) {
+      super(term.getName(), term.getWeight());
+      this.term = term;
+      this.stats = stats;
+      this.termStats = stats.getTermStats(term.getName());
+    }
+
+    @Override
+    public double value(Classification classification) {
+      long start = System.nanoTime();
+      double value = term.value(classification);
+      long nanos = System.nanoTime() - start;
+      // the terms of the classifier of the alternatives dialog are evaluated by the UI and by the search
+      synchronized (stats) {
+        termStats.nanos += nanos;
+        termStats.evaluations++;
+      }
+      return value;
+    }
+  }
+
+  /**
+   * The objective value of the Classifier is the weighted sum of these terms, so they are timed where they are evaluated.
+   *
+   * @return the terms of the Classifier plus the MeasureCostTerm
+   */
+  @Override
+  public synchronized List<ObjectiveTerm> getObjectiveTerms() {
+    if (objectiveTerms == null) {
+      List<ObjectiveTerm> terms = new ArrayList<ObjectiveTerm>();
+      for (ObjectiveTerm term : super.getObjectiveTerms())
+        terms.add(new TimedTerm(term, stats));
+      terms.add(new TimedTerm(measureCost, stats));
+      objectiveTerms = terms;
+    }
+    return objectiveTerms;
+  }
+
+  public MeasureCostTerm getMeasureCost() {
+    return measureCost;
+  }
+
+  public SearchStats getStats() {
+    return stats;
+  }
+
+  public SubtreeMemo getMemo() {
+    return memo;
+  }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.ac.auckland.alm.alternatives;
+
+
+/**
+ * Budget of an alternative search.
+ *
+ * Besides the hard limits a search worker stops when it converged, i.e. when the best PLATEAU_K objective values of the
+ * worker did not improve for plateauIterations classifications or for plateauTime milliseconds. A negative plateau value
+ * disables the rule.
+ */
+public class SearchProfile {
+  static final public int PLATEAU_K = 10;
+
+  static final public SearchProfile QUICK = new SearchProfile("quick", 100, 30 * 1000, 20, 500, 5 * 1000);
+  static final public SearchProfile BALANCED = new SearchProfile("balanced", 300, 2 * 1000 * 60, 40, 2000, 20 * 1000);
+  static final public SearchProfile EXHAUSTIVE = new SearchProfile("exhaustive", 300, 5 * 1000 * 60, 40, -1, -1);
+
+  static final public SearchProfile[] PROFILES = {QUICK, BALANCED, EXHAUSTIVE};
+
+  final private String name;
+  final private int maxResults;
+  final private long maxTime;
+  final private int searchDepth;
+  final private int plateauIterations;
+  final private long plateauTime;
+
+  /**
+   * @param maxResults max number of alternatives
+   * @param maxTime max search time in milliseconds
+   * @param searchDepth passed to FragmentAlternatives.calculateAlternatives
+   * @param plateauIterations stop after this many classifications without improvement
+   * @param plateauTime stop after this many milliseconds without improvement
+   */
+  public SearchProfile(String name, int maxResults, long maxTime, int searchDepth, int plateauIterations, long plateauTime) {
+    this.name = name;
+    this.maxResults = maxResults;
+    this.maxTime = maxTime;
+    this.searchDepth = searchDepth;
+    this.plateauIterations = plateauIterations;
+    this.plateauTime = plateauTime;
+  }
+
+  /**
+   * @return the profile with the given name or null
+   */
+  static public SearchProfile get(String name) {
+    for (SearchProfile profile : PROFILES) {
+      if (profile.getName().equals(name))
+        return profile;
+    }
+    return null;
+  }
+
+  public SearchProfile withPlateau(int plateauIterations, long plateauTime) {
+    return new SearchProfile(name, maxResults, maxTime, searchDepth, plateauIterations, plateauTime);
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public int getMaxResults() {
+    return maxResults;
+  }
+
+  public long getMaxTime() {
+    return maxTime;
+  }
+
+  public int getSearchDepth() {
+    return searchDepth;
+  }
+
+  public int getPlateauIterations() {
+    return plateauIterations;
+  }
+
+  public long getPlateauTime() {
+    return plateauTime;
+  }
+
+  @Override
+  public String toString() {
+    return name + "(" + maxResults + ", " + maxTime + "ms, " + searchDepth + ", plateau " + plateauIterations + "/"
+           + plateauTime + "ms)";
+  }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.ac.auckland.alm.alternatives;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Counters and timers of a search per transformation, per permutation selector and per objective term.
+ *
+ * Every worker collects its own stats without synchronization, the search merges them when it is done. Only the term stats
+ * are synchronized on the stats object since the objective terms of a classifier are also evaluated by the UI.
+ */
+public class SearchStats {
+  static public class TrafoStats {
+    final private String name;
+    // classified permutations produced by the trafo
+    int applications;
+    int unique;
+    int duplicates;
+    int accepted;
+
+    TrafoStats(String name) {
+      this.name = name;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public int getApplications() {
+      return applications;
+    }
+
+    public int getUnique() {
+      return unique;
+    }
+
+    public int getDuplicates() {
+      return duplicates;
+    }
+
+    public int getAccepted() {
+      return accepted;
+    }
+  }
+
+  static public class SelectorStats {
+    final private String name;
+    long calls;
+    // time spent in the selector, i.e. in the trafos it applies
+    long nanos;
+
+    SelectorStats(String name) {
+      this.name = name;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public long getCalls() {
+      return calls;
+    }
+
+    public long getNanos() {
+      return nanos;
+    }
+  }
+
+  static public class TermStats {
+    final private String name;
+    long evaluations;
+    long nanos;
+
+    TermStats(String name) {
+      this.name = name;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public long getEvaluations() {
+      return evaluations;
+    }
+
+    public long getNanos() {
+      return nanos;
+    }
+  }
+
+  final private Map<String, TrafoStats> trafoStats = new LinkedHashMap<String, TrafoStats>();
+  final private Map<String, SelectorStats> selectorStats = new LinkedHashMap<String, SelectorStats>();
+  final private Map<String, TermStats> termStats = new LinkedHashMap<String, TermStats>();
+
+  public TrafoStats getTrafoStats(String name) {
+    TrafoStats stats = trafoStats.get(name);
+    if (stats == null) {
+      stats = new TrafoStats(name);
+      trafoStats.put(name, stats);
+    }
+    return stats;
+  }
+
+  public SelectorStats getSelectorStats(String name) {
+    SelectorStats stats = selectorStats.get(name);
+    if (stats == null) {
+      stats = new SelectorStats(name);
+      selectorStats.put(name, stats);
+    }
+    return stats;
+  }
+
+  public synchronized TermStats getTermStats(String name) {
+    TermStats stats = termStats.get(name);
+    if (stats == null) {
+      stats = new TermStats(name);
+      termStats.put(name, stats);
+    }
+    return stats;
+  }
+
+  public List<TrafoStats> getTrafoStats() {
+    return new ArrayList<TrafoStats>(trafoStats.values());
+  }
+
+  public List<SelectorStats> getSelectorStats() {
+    return new ArrayList<SelectorStats>(selectorStats.values());
+  }
+
+  public synchronized List<TermStats> getTermStats() {
+    return new ArrayList<TermStats>(termStats.values());
+  }
+
+  public synchronized void add(SearchStats other) {
+    for (TrafoStats stats : other.trafoStats.values()) {
+      TrafoStats sum = getTrafoStats(stats.name);
+      sum.applications += stats.applications;
+      sum.unique += stats.unique;
+      sum.duplicates += stats.duplicates;
+      sum.accepted += stats.accepted;
+    }
+    for (SelectorStats stats : other.selectorStats.values()) {
+      SelectorStats sum = getSelectorStats(stats.name);
+      sum.calls += stats.calls;
+      sum.nanos += stats.nanos;
+    }
+    synchronized (other) {
+      for (TermStats stats : other.termStats.values()) {
+        TermStats sum = getTermStats(stats.name);
+        sum.evaluations += stats.evaluations;
+        sum.nanos += stats.nanos;
+      }
+    }
+  }
+
+  @Override
+  public synchronized String toString() {
+    StringBuilder builder = new StringBuilder();
+    builder.append(String.format("%-24s %10s %10s %10s %10s%n", "trafo", "applied", "unique", "duplicate", "accepted"));
+    for (TrafoStats stats : trafoStats.values()) {
+      builder.append(String.format("%-24s %10d %10d %10d %10d%n", stats.name, stats.applications, stats.unique,
+                                   stats.duplicates, stats.accepted));
+    }
+    builder.append(String.format("%-24s %10s %10s%n", "selector", "calls", "ms"));
+    for (SelectorStats stats : selectorStats.values())
+      builder.append(String.format("%-24s %10d %10d%n", stats.name, stats.calls, stats.nanos / 1000000));
+    builder.append(String.format("%-24s %10s %10s%n", "objective term", "evaluated", "ms"));
+    for (TermStats stats : termStats.values())
+      builder.append(String.format("%-24s %10d %10d%n", stats.name, stats.evaluations, stats.nanos / 1000000));
+    return builder.toString();
+  }
+}
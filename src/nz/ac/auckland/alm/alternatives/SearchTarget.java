@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.ac.auckland.alm.alternatives;
+
+
+/**
+ * A screen configuration alternatives are generated for, e.g. layout-land with the landscape screen size.
+ */
+public class SearchTarget {
+  final private String outputDir;
+  final private int width;
+  final private int height;
+
+  public SearchTarget(String outputDir, int width, int height) {
+    this.outputDir = outputDir;
+    this.width = width;
+    this.height = height;
+  }
+
+  public String getOutputDir() {
+    return outputDir;
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public int getHeight() {
+    return height;
+  }
+
+  @Override
+  public String toString() {
+    return outputDir + "(" + width + "x" + height + ")";
+  }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.ac.auckland.alm.alternatives;
+
+import nz.ac.auckland.alm.algebra.Fragment;
+import nz.ac.auckland.alm.algebra.trafo.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * The permutation selectors of the search workers, shared by the IDE actions and the BatchGenerator.
+ */
+public class SelectorChains {
+  /**
+   * Times the calls of a selector, i.e. the trafos it applies, and records them in the SearchStats of the worker.
+   */
+  static private class TimedSelector<T> implements IPermutationSelector<T> {
+    final private IPermutationSelector<T> selector;
+    final private SearchStats.SelectorStats selectorStats;
+
+    TimedSelector(IPermutationSelector<T> selector, SearchStats.SelectorStats selectorStats) {
+      this.selector = selector;
+      this.selectorStats = selectorStats;
+    }
+
+    @Override
+    public List<Fragment> perform(Fragment fragment, TrafoHistory history, IAlternativeClassifier<T> classifier) {
+      long start = System.nanoTime();
+      try {
+        return selector.perform(fragment, history, classifier);
+      } finally {
+        selectorStats.nanos += System.nanoTime() - start;
+        selectorStats.calls++;
+      }
+    }
+  }
+
+  /**
+   * Chains a selector for each stage trafo followed by a random selector. Each worker applies the stages in a different
+   * order so that the workers explore different parts of the permutation space first. Once all stage orders are taken the
+   * further workers start with the random selector.
+   *
+   * @param stats the stats of the worker, every selector of the chain is timed
+   */
+  @SuppressWarnings("unchecked")
+  static public IPermutationSelector<Classification> create(List<ITransformation> trafos, List<ITransformation> stages,
+                                                            int worker, SearchStats stats) {
+    List<IPermutationSelector<Classification>> selectors = new ArrayList<IPermutationSelector<Classification>>();
+    List<ITransformation> order = getStageOrder(stages, worker);
+    if (order != null) {
+      for (ITransformation stage : order) {
+        selectors.add(new TimedSelector<Classification>(
+          new ApplyToAllPermutationSelector<Classification>(trafos, stage),
+          stats.getSelectorStats("ApplyToAll(" + stage.getClass().getSimpleName() + ")")));
+      }
+    }
+    selectors.add(new TimedSelector<Classification>(new RandomPermutationSelector<Classification>(trafos),
+                                                    stats.getSelectorStats("Random")));
+    // generic arrays can't be created, the array only holds selectors of Classifications
+    IPermutationSelector<Classification>[] array = selectors.toArray(new IPermutationSelector[selectors.size()]);
+    return new ChainPermutationSelector<Classification>(array);
+  }
+
+  /**
+   * @return the n-th permutation of the stages in lexicographic order or null if n exceeds the number of permutations
+   */
+  static private List<ITransformation> getStageOrder(List<ITransformation> stages, int n) {
+    List<ITransformation> remaining = new ArrayList<ITransformation>(stages);
+    int permutations = 1;
+    for (int i = 2; i <= remaining.size(); i++)
+      permutations *= i;
+    if (n >= permutations)
+      return null;
+    List<ITransformation> order = new ArrayList<ITransformation>();
+    while (!remaining.isEmpty()) {
+      permutations /= remaining.size();
+      order.add(remaining.remove(n / permutations));
+      n %= permutations;
+    }
+    return order;
+  }
+}
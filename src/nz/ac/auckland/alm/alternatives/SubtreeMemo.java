@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.ac.auckland.alm.alternatives;
+
+import nz.ac.auckland.alm.IArea;
+import nz.ac.auckland.alm.algebra.Fragment;
+import nz.ac.auckland.alm.algebra.trafo.Classification;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+
+/**
+ * Memo of the per subtree values the search needs for every permutation: the structural hash (see FragmentIndex.hash) and
+ * the classification of the subtree once it has been classified.
+ *
+ * Permutations share most of their subtrees with the permutation they have been derived from; a transformation replaces
+ * the fragments on the path from the changed subtree to the root. An entry remembers the items of its fragment and the
+ * entries of its fragment items. It stays valid as long as the fragment holds the same items and the items still have the
+ * same entries, which is checked one level deep. A changed subtree gets a new entry, so its parent doesn't match anymore
+ * and only the path to the root is recomputed. The memo is not thread safe, every worker has its own.
+ */
+public class SubtreeMemo {
+  static final private int MAX_ENTRIES = 100000;
+
+  static private class Entry {
+    final IArea[] items;
+    // the entries the values have been computed from, null for leafs
+    final Entry[] itemEntries;
+    // hashItems of FragmentIndex as linear function: hash' = multiplier * hash + summand
+    final long multiplier;
+    final long summand;
+    final long hash;
+    Classification classification;
+
+    Entry(IArea[] items, Entry[] itemEntries, long multiplier, long summand, long hash) {
+      this.items = items;
+      this.itemEntries = itemEntries;
+      this.multiplier = multiplier;
+      this.summand = summand;
+      this.hash = hash;
+    }
+  }
+
+  final private Map<Fragment, Entry> entries = new IdentityHashMap<Fragment, Entry>();
+  private int hits = 0;
+
+  public long hash(IArea area) {
+    if (!(area instanceof Fragment))
+      return FragmentIndex.hashLeaf(area);
+    return getEntry((Fragment)area).hash;
+  }
+
+  /**
+   * @return the classification of the subtree or null if it has not been classified yet
+   */
+  public Classification getClassification(Fragment fragment) {
+    Classification classification = getEntry(fragment).classification;
+    if (classification != null)
+      hits++;
+    return classification;
+  }
+
+  public void setClassification(Fragment fragment, Classification classification) {
+    getEntry(fragment).classification = classification;
+  }
+
+  /**
+   * @return the number of classifications that have been found in the memo
+   */
+  public int getHits() {
+    return hits;
+  }
+
+  public void clear() {
+    entries.clear();
+  }
+
+  private Entry getEntry(Fragment fragment) {
+    Entry entry = entries.get(fragment);
+    if (entry != null && isValid(entry, fragment))
+      return entry;
+    entry = compute(fragment);
+    if (entries.size() >= MAX_ENTRIES)
+      entries.clear();
+    entries.put(fragment, entry);
+    return entry;
+  }
+
+  private boolean isValid(Entry entry, Fragment fragment) {
+    if (fragment.size() != entry.items.length)
+      return false;
+    for (int i = 0; i < entry.items.length; i++) {
+      IArea item = fragment.getItemAt(i);
+      if (item != entry.items[i])
+        return false;
+      if (item instanceof Fragment && entries.get(item) != entry.itemEntries[i])
+        return false;
+    }
+    return true;
+  }
+
+  private Entry compute(Fragment fragment) {
+    boolean horizontal = fragment.isHorizontalDirection();
+    IArea[] items = new IArea[fragment.size()];
+    Entry[] itemEntries = new Entry[items.length];
+    long multiplier = 1;
+    long summand = 0;
+    for (int i = 0; i < items.length; i++) {
+      IArea item = fragment.getItemAt(i);
+      items[i] = item;
+      if (item instanceof Fragment) {
+        Entry itemEntry = getEntry((Fragment)item);
+        itemEntries[i] = itemEntry;
+        if (((Fragment)item).size() > 1 && ((Fragment)item).isHorizontalDirection() == horizontal) {
+          // flattened into this fragment
+          multiplier = itemEntry.multiplier * multiplier;
+          summand = itemEntry.multiplier * summand + itemEntry.summand;
+        } else {
+          multiplier = 31 * multiplier;
+          summand = 31 * summand + itemEntry.hash;
+        }
+      } else {
+        multiplier = 31 * multiplier;
+        summand = 31 * summand + FragmentIndex.hashLeaf(item);
+      }
+    }
+
+    long hash;
+    if (items.length == 1)
+      hash = itemEntries[0] != null ? itemEntries[0].hash : FragmentIndex.hashLeaf(items[0]);
+    else
+      hash = FragmentIndex.mix(multiplier * (horizontal ? FragmentIndex.HORIZONTAL_SEED : FragmentIndex.VERTICAL_SEED) + summand);
+    return new Entry(items, itemEntries, multiplier, summand, hash);
+  }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.ac.auckland.alm.alternatives;
+
+import nz.ac.auckland.alm.algebra.Fragment;
+
+import java.util.*;
+
+
+/**
+ * The k best alternatives ordered by their objective value.
+ *
+ * The alternatives are kept in a bounded heap with the worst alternative at the top, so adding an alternative is O(log k)
+ * and the memory stays O(k) no matter how many alternatives are offered. Equivalent alternatives are only kept once.
+ */
+public class TopAlternatives {
+  static final public Comparator<AlternativeInfo> OBJECTIVE_VALUE_COMPARATOR = new Comparator<AlternativeInfo>() {
+    @Override
+    public int compare(AlternativeInfo a0, AlternativeInfo a1) {
+      return Double.compare(a0.getObjectiveValue(), a1.getObjectiveValue());
+    }
+  };
+
+  final private int capacity;
+  // worst alternative first
+  final private PriorityQueue<AlternativeInfo> heap;
+  final private FragmentIndex<AlternativeInfo> index = new FragmentIndex<AlternativeInfo>();
+
+  public TopAlternatives(int capacity) {
+    this.capacity = capacity;
+    this.heap = new PriorityQueue<AlternativeInfo>(Math.max(1, capacity), Collections.reverseOrder(OBJECTIVE_VALUE_COMPARATOR));
+  }
+
+  /**
+   * Adds the alternative if it is better than the worst alternative and if there is no equivalent alternative yet.
+   *
+   * @return true if the alternative has been added
+   */
+  public boolean offer(AlternativeInfo alternative) {
+    return offer(alternative, FragmentIndex.hash(alternative.getFragment()));
+  }
+
+  /**
+   * @param hash the structural hash of the fragment, e.g. from a SubtreeMemo
+   */
+  public boolean offer(AlternativeInfo alternative, long hash) {
+    if (!isCandidate(alternative.getObjectiveValue()))
+      return false;
+    if (!index.put(alternative.getFragment(), hash, alternative))
+      return false;
+    heap.add(alternative);
+    if (heap.size() > capacity) {
+      AlternativeInfo worst = heap.poll();
+      index.remove(worst.getFragment());
+    }
+    return true;
+  }
+
+  /**
+   * @return true if an alternative with this objective value would be added unless there is an equivalent alternative
+   */
+  public boolean isCandidate(double objectiveValue) {
+    return capacity > 0 && (heap.size() < capacity || objectiveValue < heap.peek().getObjectiveValue());
+  }
+
+  /**
+   * Check before an alternative is copied for this heap: the objective value must beat the worst alternative and there
+   * must be no equivalent alternative. The equivalence is confirmed on the uncopied fragment.
+   */
+  public boolean isAdmissible(double objectiveValue, Fragment fragment, long hash) {
+    return isCandidate(objectiveValue) && index.get(fragment, hash) == null;
+  }
+
+  /**
+   * @return the equivalent alternative or null
+   */
+  public AlternativeInfo get(AlternativeInfo alternative) {
+    return index.get(alternative.getFragment());
+  }
+
+  public boolean isFull() {
+    return heap.size() >= capacity;
+  }
+
+  /**
+   * @return the k-th best alternative or null if there are no alternatives
+   */
+  public AlternativeInfo getWorst() {
+    return heap.peek();
+  }
+
+  public int size() {
+    return heap.size();
+  }
+
+  /**
+   * @return the alternatives, best first
+   */
+  public List<AlternativeInfo> toList() {
+    PriorityQueue<AlternativeInfo> drain = new PriorityQueue<AlternativeInfo>(heap);
+    AlternativeInfo[] alternatives = new AlternativeInfo[drain.size()];
+    for (int i = alternatives.length - 1; i >= 0; i--)
+      alternatives[i] = drain.poll();
+    return new ArrayList<AlternativeInfo>(Arrays.asList(alternatives));
+  }
+}
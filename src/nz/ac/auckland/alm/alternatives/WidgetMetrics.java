@@ -0,0 +1,285 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.ac.auckland.alm.alternatives;
+
+import com.android.tools.idea.configurations.Configuration;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Key;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.xml.XmlAttribute;
+import com.intellij.psi.xml.XmlTag;
+import nz.ac.auckland.alm.Area;
+import nz.ac.auckland.alm.IArea;
+import nz.ac.auckland.alm.algebra.Fragment;
+import org.jetbrains.android.facet.AndroidFacet;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+
+/**
+ * Persistent database of the measured view sizes of a project and configuration (theme, device, orientation and locale).
+ *
+ * The min, preferred and max size of a view is keyed by its tag name and all attributes that can influence its size, i.e.
+ * all attributes except the id and the tools attributes. The sub tags of a view are part of the key as well. The sizes are
+ * recorded after a layout has been rendered and parsed. When the database has the sizes of all views of a layout,
+ * NlComponentParser can parse the layout straight from the XML without rendering it. The root size only depends on the
+ * configuration, so it is kept once per database and survives edits of the layout.
+ *
+ * Every edit of a view's attributes adds a new key, so only the MAX_ENTRIES most recently used entries are kept. The
+ * entries are saved in the order of their last use, so the order survives a restart.
+ *
+ * Values referenced by the attributes, e.g. string resources, are not part of the key. After such a resource changed the
+ * sizes are wrong until the layout is rendered again, e.g. after the view itself has been edited.
+ */
+public class WidgetMetrics {
+  private static final Logger LOG = Logger.getInstance(WidgetMetrics.class);
+
+  static final private Key<Map<String, WidgetMetrics>> METRICS_KEY
+    = Key.create("nz.ac.auckland.alm.alternatives.WidgetMetrics");
+  static final private int VERSION = 2;
+  // key of the root size, view keys are hex digests and can't collide with it
+  static final private String ROOT_KEY = "root";
+  // about 100 bytes per entry in memory and on disk
+  static final private int MAX_ENTRIES = 10000;
+
+  static public class Entry {
+    final public Area.Size minSize;
+    final public Area.Size preferredSize;
+    final public Area.Size maxSize;
+
+    public Entry(Area.Size minSize, Area.Size preferredSize, Area.Size maxSize) {
+      this.minSize = minSize;
+      this.preferredSize = preferredSize;
+      this.maxSize = maxSize;
+    }
+  }
+
+  final private File file;
+  // access order, so that the least recently used entries come first; the root entry is put on each record
+  final private Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+      return size() > MAX_ENTRIES;
+    }
+  };
+  private boolean loaded = false;
+  private boolean dirty = false;
+
+  public WidgetMetrics(File file) {
+    this.file = file;
+  }
+
+  /**
+   * @param configurationKey identifies the configuration the layout is rendered with, see getConfigurationKey()
+   * @return the metrics database of the project and configuration
+   */
+  static public WidgetMetrics getInstance(Project project, String configurationKey) {
+    synchronized (METRICS_KEY) {
+      Map<String, WidgetMetrics> metricsMap = project.getUserData(METRICS_KEY);
+      if (metricsMap == null) {
+        metricsMap = new HashMap<String, WidgetMetrics>();
+        project.putUserData(METRICS_KEY, metricsMap);
+      }
+      WidgetMetrics metrics = metricsMap.get(configurationKey);
+      if (metrics == null) {
+        File directory = new File(PathManager.getSystemPath(), "layoutalternatives" + File.separator
+                                                               + project.getLocationHash() + File.separator + "metrics");
+        metrics = new WidgetMetrics(new File(directory, digest(configurationKey) + ".metrics"));
+        metricsMap.put(configurationKey, metrics);
+      }
+      return metrics;
+    }
+  }
+
+  static public String getConfigurationKey(AndroidFacet facet, VirtualFile layoutFile) {
+    Configuration configuration = facet.getConfigurationManager().getConfiguration(layoutFile);
+    StringBuilder key = new StringBuilder();
+    key.append(configuration.getTheme());
+    key.append(':').append(configuration.getDevice() != null ? configuration.getDevice().getId() : null);
+    key.append(':').append(configuration.getDeviceState() != null ? configuration.getDeviceState().getName() : null);
+    key.append(':').append(configuration.getLocale());
+    return key.toString();
+  }
+
+  /**
+   * @return the sizes of the view or null if the view has not been measured yet
+   */
+  public synchronized Entry get(XmlTag tag) {
+    load();
+    return entries.get(createKey(tag));
+  }
+
+  /**
+   * @return the size of the rendered root view or null if no layout has been rendered with the configuration yet
+   */
+  public synchronized Area.Size getRootSize() {
+    load();
+    Entry entry = entries.get(ROOT_KEY);
+    if (entry == null)
+      return null;
+    return new Area.Size(entry.preferredSize.getWidth(), entry.preferredSize.getHeight());
+  }
+
+  /**
+   * Records the sizes of the views of a parsed layout.
+   *
+   * @param area parsed layout, the tags of the leafs are looked up with LayoutSnapshot.getTag()
+   * @param rootSize rendered size of the root view
+   */
+  public synchronized void record(IArea area, Area.Size rootSize) {
+    load();
+    recordLeafs(area);
+    entries.put(ROOT_KEY, new Entry(rootSize, rootSize, rootSize));
+    dirty = true;
+  }
+
+  private void recordLeafs(IArea area) {
+    if (area instanceof Fragment) {
+      for (IArea item : (Iterable<IArea>)((Fragment)area).getItems())
+        recordLeafs(item);
+      return;
+    }
+    XmlTag tag = LayoutSnapshot.getTag(area.getCookie());
+    if (tag == null)
+      return;
+    Area leaf = (Area)area;
+    entries.put(createKey(tag), new Entry(copy(leaf.getMinSize()), copy(leaf.getPreferredSize()),
+                                          copy(leaf.getMaxSize())));
+  }
+
+  static private Area.Size copy(Area.Size size) {
+    return new Area.Size(size.getWidth(), size.getHeight());
+  }
+
+  /**
+   * Key of a view: the tag name, the sorted size relevant attributes and the sub tags. Only leaf views are keyed and their
+   * subtrees don't overlap, so the keys of a layout are computed in linear time.
+   */
+  static public String createKey(XmlTag tag) {
+    StringBuilder builder = new StringBuilder();
+    appendTag(tag, builder);
+    return digest(builder.toString());
+  }
+
+  static private void appendTag(XmlTag tag, StringBuilder builder) {
+    builder.append('<').append(tag.getName());
+    List<String> attributes = new ArrayList<String>();
+    for (XmlAttribute attribute : tag.getAttributes()) {
+      String name = attribute.getName();
+      if (name.equals("android:id") || name.startsWith("tools:") || name.startsWith("xmlns:"))
+        continue;
+      attributes.add(name + "=\"" + attribute.getValue() + "\"");
+    }
+    Collections.sort(attributes);
+    for (String attribute : attributes)
+      builder.append(' ').append(attribute);
+    builder.append('>');
+    for (XmlTag subTag : tag.getSubTags())
+      appendTag(subTag, builder);
+    builder.append("</>");
+  }
+
+  static private String digest(String text) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-1");
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    }
+    StringBuilder key = new StringBuilder();
+    for (byte b : digest.digest(text.getBytes(Charset.forName("UTF-8"))))
+      key.append(String.format("%02x", b));
+    return key.toString();
+  }
+
+  private void load() {
+    if (loaded)
+      return;
+    loaded = true;
+    if (!file.exists())
+      return;
+    try {
+      DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+      try {
+        if (input.readInt() != VERSION)
+          throw new IOException("Unknown version");
+        int size = input.readInt();
+        for (int i = 0; i < size; i++) {
+          String key = input.readUTF();
+          entries.put(key, new Entry(readSize(input), readSize(input), readSize(input)));
+        }
+      } finally {
+        input.close();
+      }
+    } catch (IOException e) {
+      LOG.warn("Dropping invalid metrics database " + file, e);
+      entries.clear();
+      file.delete();
+    }
+  }
+
+  /**
+   * Writes the database if it has been changed.
+   */
+  public synchronized void save() {
+    if (!dirty)
+      return;
+    File directory = file.getParentFile();
+    if (!directory.exists() && !directory.mkdirs()) {
+      LOG.warn("Can't create metrics directory " + directory);
+      return;
+    }
+    File tmpFile = new File(directory, file.getName() + ".tmp");
+    try {
+      DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+      try {
+        output.writeInt(VERSION);
+        output.writeInt(entries.size());
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+          output.writeUTF(entry.getKey());
+          writeSize(entry.getValue().minSize, output);
+          writeSize(entry.getValue().preferredSize, output);
+          writeSize(entry.getValue().maxSize, output);
+        }
+      } finally {
+        output.close();
+      }
+      if (file.exists())
+        file.delete();
+      if (!tmpFile.renameTo(file))
+        throw new IOException("Can't rename " + tmpFile);
+      dirty = false;
+    } catch (IOException e) {
+      LOG.warn("Can't write metrics database " + file, e);
+      tmpFile.delete();
+    }
+  }
+
+  static private Area.Size readSize(DataInput input) throws IOException {
+    return new Area.Size(input.readDouble(), input.readDouble());
+  }
+
+  static private void writeSize(Area.Size size, DataOutput output) throws IOException {
+    output.writeDouble(size.getWidth());
+    output.writeDouble(size.getHeight());
+  }
+}
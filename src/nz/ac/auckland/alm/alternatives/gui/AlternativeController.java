@@ -15,12 +15,12 @@
  */
 package nz.ac.auckland.alm.alternatives.gui;
 
-import nz.ac.auckland.alm.algebra.trafo.IAlternativeClassifier;
 import nz.ac.auckland.alm.alternatives.AlternativeInfo;
+import nz.ac.auckland.alm.alternatives.SearchStats;
+import nz.ac.auckland.alm.alternatives.TopAlternatives;
 import nz.ac.auckland.alm.misc.WeakListenable;
 
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
 
 
@@ -32,27 +32,56 @@ public class AlternativeController extends WeakListenable<AlternativeController.
 
   final private String fileName;
   final private List<AlternativeInfo> alternatives;
-  final private IAlternativeClassifier classifier;
   private int selectedAlternative = -1;
+  private SearchStats stats;
 
-  public AlternativeController(String fileName, List<AlternativeInfo> alternatives, IAlternativeClassifier classifier) {
+  public AlternativeController(String fileName, List<AlternativeInfo> alternatives) {
     this.fileName = fileName;
     this.alternatives = alternatives;
-    this.classifier = classifier;
   }
 
   public void sortByObjectiveValue() {
-    Collections.sort(alternatives, new Comparator<AlternativeInfo>() {
-      @Override
-      public int compare(AlternativeInfo a0, AlternativeInfo a1) {
-        Double objectiveValue0 = classifier.objectiveValue(a0.getResult().classification);
-        Double objectiveValue1 = classifier.objectiveValue(a1.getResult().classification);
-        return objectiveValue0.compareTo(objectiveValue1);
-      }
-    });
+    AlternativeInfo selected = selectedAlternative >= 0 ? alternatives.get(selectedAlternative) : null;
+    Collections.sort(alternatives, TopAlternatives.OBJECTIVE_VALUE_COMPARATOR);
+    // keep the selection on the same alternative, the index may have changed
+    if (selected != null)
+      selectedAlternative = alternatives.indexOf(selected);
     notifyAlternativesChanged();
   }
 
+  /**
+   * Adds a batch of alternatives, e.g. while the search is still running, and keeps the list sorted.
+   */
+  public void addAlternatives(List<AlternativeInfo> newAlternatives) {
+    if (newAlternatives.isEmpty())
+      return;
+    alternatives.addAll(newAlternatives);
+    sortByObjectiveValue();
+  }
+
+  /**
+   * Replaces all alternatives, e.g. with the final result of the search.
+   */
+  public void setAlternatives(List<AlternativeInfo> newAlternatives) {
+    AlternativeInfo selected = selectedAlternative >= 0 ? alternatives.get(selectedAlternative) : null;
+    alternatives.clear();
+    alternatives.addAll(newAlternatives);
+    selectedAlternative = selected != null ? alternatives.indexOf(selected) : -1;
+    sortByObjectiveValue();
+  }
+
+  /**
+   * Sets the stats of the search the alternatives come from.
+   */
+  public void setStats(SearchStats stats) {
+    this.stats = stats;
+    notifyAlternativesChanged();
+  }
+
+  public SearchStats getStats() {
+    return stats;
+  }
+
   public void selectAlternative(int i) {
     if (i == this.selectedAlternative)
       return;
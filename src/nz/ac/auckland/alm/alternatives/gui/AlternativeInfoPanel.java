@@ -18,7 +18,6 @@ package nz.ac.auckland.alm.alternatives.gui;
 import com.intellij.ui.components.JBScrollPane;
 import com.intellij.ui.table.JBTable;
 import nz.ac.auckland.alm.algebra.Fragment;
-import nz.ac.auckland.alm.algebra.trafo.Classification;
 import nz.ac.auckland.alm.algebra.trafo.Classifier;
 import nz.ac.auckland.alm.algebra.trafo.ObjectiveTerm;
 import nz.ac.auckland.alm.alternatives.*;
@@ -53,7 +52,7 @@ public class AlternativeInfoPanel {
     List<ObjectiveTerm> objectiveTerms = classifier.getObjectiveTerms();
     for (AlternativeInfo alternativeInfo : alternativeInfos) {
       for (int i = 0; i < objectiveTerms.size(); i++) {
-        double value = objectiveTerms.get(i).value((Classification)alternativeInfo.getResult().classification);
+        double value = objectiveTerms.get(i).value(alternativeInfo.getClassification());
         writer.write("" + value);
         if (i < objectiveTerms.size() - 1)
           writer.write(",");
@@ -64,13 +63,23 @@ public class AlternativeInfoPanel {
     writer.close();
   }
 
-  static public JPanel create(Fragment main, final AlternativeController alternativeController,
+  static private class InfoPanel extends JPanel {
+    // we have to keep a hard ref
+    private AlternativeController.IListener alternativesListener;
+  }
+
+  static private String getTitle(Fragment main, List<AlternativeInfo> alternativeInfos) {
+    return "Original Layout: " + main.toString() + ", " + alternativeInfos.size() + "Alternatives:";
+  }
+
+  static public JPanel create(final Fragment main, final AlternativeController alternativeController,
                               final Classifier classifier) {
     final List<AlternativeInfo> alternativeInfos = alternativeController.getAlternatives();
 
-    JPanel panel = new JPanel();
+    InfoPanel panel = new InfoPanel();
     panel.setLayout(new BoxLayout(panel, BoxLayout.Y_AXIS));
-    panel.add(new Label("Original Layout: " + main.toString() + ", " + alternativeInfos.size() + "Alternatives:"));
+    final Label titleLabel = new Label(getTitle(main, alternativeInfos));
+    panel.add(titleLabel);
 
     final List<IColumn> myColumns = new ArrayList<IColumn>();
     myColumns.add(new IColumn() {
@@ -103,7 +112,7 @@ public class AlternativeInfoPanel {
 
       @Override
       public Object getRow(AlternativeInfo info, int row) {
-        return classifier.objectiveValue((Classification)info.getResult().classification);
+        return info.getObjectiveValue();
       }
     });
     for (final ObjectiveTerm term : classifier.getObjectiveTerms()) {
@@ -115,12 +124,12 @@ public class AlternativeInfoPanel {
 
         @Override
         public Object getRow(AlternativeInfo info, int row) {
-          return term.getWeight() * term.value((Classification)info.getResult().classification);
+          return term.getWeight() * term.value(info.getClassification());
         }
       });
     }
 
-    AbstractTableModel tableModel = new AbstractTableModel() {
+    final AbstractTableModel tableModel = new AbstractTableModel() {
       @Override
       public int getRowCount() {
         return alternativeInfos.size();
@@ -148,12 +157,15 @@ public class AlternativeInfoPanel {
     table.getSelectionModel().addListSelectionListener(new ListSelectionListener() {
       @Override
       public void valueChanged(ListSelectionEvent listSelectionEvent) {
+        // the selection is cleared while the table is updated with new alternatives
+        if (table.getSelectedRow() < 0)
+          return;
         alternativeController.selectAlternative(table.getSelectedRow());
 
         AlternativeInfo info = alternativeInfos.get(table.getSelectedRow());
         double sum = 0;
         for (final ObjectiveTerm term : classifier.getObjectiveTerms()) {
-          double value = term.value((Classification)info.getResult().classification);
+          double value = term.value(info.getClassification());
           System.out.print(value + ", ");
           sum += value;
         }
@@ -188,6 +200,24 @@ public class AlternativeInfoPanel {
 
     panel.add(new JBScrollPane(table));
 
+    // alternatives arrive in batches while the search is running
+    panel.alternativesListener = new AlternativeController.IListener() {
+      @Override
+      public void onAlternativesChanged() {
+        titleLabel.setText(getTitle(main, alternativeInfos));
+        tableModel.fireTableDataChanged();
+        int selected = alternativeController.getSelectedAlternative();
+        if (selected >= 0)
+          table.getSelectionModel().setSelectionInterval(selected, selected);
+      }
+
+      @Override
+      public void onAlternativeSelected(int i) {
+
+      }
+    };
+    alternativeController.addListener(panel.alternativesListener);
+
     // export button
     JButton exportButton = new JButton("Export");
     exportButton.addActionListener(new ActionListener() {
@@ -24,6 +24,7 @@ import nz.ac.auckland.alm.algebra.Fragment;
 import nz.ac.auckland.alm.algebra.trafo.Classifier;
 import nz.ac.auckland.alm.alternatives.AlternativeInfo;
 import nz.ac.auckland.alm.alternatives.LayoutRenderer;
+import nz.ac.auckland.alm.alternatives.PipelineEvents;
 
 import javax.imageio.ImageIO;
 import javax.swing.*;
@@ -37,15 +38,17 @@ import java.util.List;
 
 
 public class AlternativeMain {
-  static public void showAlternatives(Project project, XmlFile rootXmlFile, Fragment main, AlternativeController alternativeController,
-                                      LayoutRenderer layoutRenderer, Classifier classifier) {
+  static public JDialog showAlternatives(Project project, XmlFile rootXmlFile, Fragment main, AlternativeController alternativeController,
+                                         LayoutRenderer layoutRenderer, Classifier classifier) {
     JDialog dialog = new JDialog();
     dialog.setDefaultCloseOperation(WindowConstants.DISPOSE_ON_CLOSE);
     dialog.setTitle("Layout Alternatives");
 
 
-    JSplitPane infoPanel = new JSplitPane(JSplitPane.VERTICAL_SPLIT,
-                                          AlternativeInfoPanel.create(main, alternativeController, classifier),
+    JTabbedPane tabbedPane = new JTabbedPane();
+    tabbedPane.addTab("Alternatives", AlternativeInfoPanel.create(main, alternativeController, classifier));
+    tabbedPane.addTab("Search Stats", SearchStatsPanel.create(alternativeController));
+    JSplitPane infoPanel = new JSplitPane(JSplitPane.VERTICAL_SPLIT, tabbedPane,
                                           layoutRenderer.createView(null, rootXmlFile, false));
     infoPanel.setDividerLocation(400);
 
@@ -60,6 +63,7 @@ public class AlternativeMain {
     dialog.pack();
     dialog.setLocationRelativeTo(null);
     dialog.setVisible(true);
+    return dialog;
   }
 
 
@@ -103,20 +107,27 @@ public class AlternativeMain {
 
   static private void loadPreview(AlternativeInfo alternativeInfo, JPanel previewPanel, LayoutRenderer layoutRenderer,
                                   boolean refreshResources, boolean useALMLayout) {
-    DesignSurface surface = null;
-    if (previewPanel.getComponents().length > 0) {
-      surface = (DesignSurface)previewPanel.getComponent(0);
-      previewPanel.remove(0);
-    }
+    PipelineEvents.Span span = PipelineEvents.begin(PipelineEvents.Stage.PREVIEW, alternativeInfo.getLayoutTargetDir() + "/"
+                                                                               + layoutRenderer.getXmlFile().getName())
+      .setComponentCount(PipelineEvents.countLeafs(alternativeInfo.getFragment()));
+    try {
+      DesignSurface surface = null;
+      if (previewPanel.getComponents().length > 0) {
+        surface = (DesignSurface)previewPanel.getComponent(0);
+        previewPanel.remove(0);
+      }
 
-    previewPanel.add(layoutRenderer.getDesignSurface(surface, alternativeInfo.getFragment(), false, refreshResources,
-                                                     alternativeInfo.getLayoutTargetDir(), useALMLayout));
-    previewPanel.revalidate();
-    previewPanel.repaint();
-    Container parent = previewPanel.getParent();
-    if (parent != null) {
-      parent.invalidate();
-      parent.repaint();
+      previewPanel.add(layoutRenderer.getDesignSurface(surface, alternativeInfo.getFragment(), false, refreshResources,
+                                                       alternativeInfo.getLayoutTargetDir(), useALMLayout));
+      previewPanel.revalidate();
+      previewPanel.repaint();
+      Container parent = previewPanel.getParent();
+      if (parent != null) {
+        parent.invalidate();
+        parent.repaint();
+      }
+    } finally {
+      span.end();
     }
   }
 
@@ -15,7 +15,6 @@
  */
 package nz.ac.auckland.alm.alternatives.gui;
 
-import nz.ac.auckland.alm.algebra.trafo.Classification;
 import nz.ac.auckland.alm.algebra.trafo.Classifier;
 import nz.ac.auckland.alm.algebra.trafo.ObjectiveTerm;
 import nz.ac.auckland.alm.alternatives.AlternativeInfo;
@@ -57,8 +56,8 @@ public class OptimizationDialog {
       Summand[] summands = new Summand[terms.size()];
       for (int a = 0; a < terms.size(); a++) {
         ObjectiveTerm term = terms.get(a);
-        summands[a] = new Summand(term.value((Classification)current.getResult().classification)
-                                  - term.value((Classification)toOptimize.getResult().classification), variables.get(a));
+        summands[a] = new Summand(term.value(current.getClassification())
+                                  - term.value(toOptimize.getClassification()), variables.get(a));
       }
       Constraint constraint = new Constraint(summands, OperatorType.EQ, 10, 0.5);
       linearSpec.addConstraint(constraint);
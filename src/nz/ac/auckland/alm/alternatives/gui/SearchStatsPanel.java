@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nz.ac.auckland.alm.alternatives.gui;
+
+import com.intellij.ui.components.JBScrollPane;
+import nz.ac.auckland.alm.alternatives.SearchStats;
+
+import javax.swing.*;
+import java.awt.*;
+
+
+/**
+ * Summary of the search stats of the alternatives shown in the controller.
+ */
+public class SearchStatsPanel {
+  static private class StatsPanel extends JPanel {
+    // we have to keep a hard ref
+    private AlternativeController.IListener alternativesListener;
+
+    StatsPanel() {
+      super(new BorderLayout());
+    }
+  }
+
+  static public JPanel create(final AlternativeController alternativeController) {
+    StatsPanel panel = new StatsPanel();
+    final JTextArea textArea = new JTextArea();
+    textArea.setEditable(false);
+    textArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, textArea.getFont().getSize()));
+    textArea.setText("No stats available yet");
+    panel.add(new JBScrollPane(textArea), BorderLayout.CENTER);
+
+    panel.alternativesListener = new AlternativeController.IListener() {
+      @Override
+      public void onAlternativesChanged() {
+        SearchStats stats = alternativeController.getStats();
+        if (stats != null)
+          textArea.setText(stats.toString());
+      }
+
+      @Override
+      public void onAlternativeSelected(int i) {
+
+      }
+    };
+    alternativeController.addListener(panel.alternativesListener);
+    return panel;
+  }
+}